@@ -0,0 +1,82 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+import org.cryptomator.cryptolib.common.MasterkeyFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Temporary vaults and local files shared by the benchmarks.
+ */
+final class BenchmarkVaults {
+
+    static final String PASSWORD = "benchmark-password";
+
+    /**
+     * Discards the output of {@link VaultOperations}, so console I/O does not show up in the measurements.
+     */
+    static final VaultOperations QUIET = new VaultOperations(new PrintStream(OutputStream.nullOutputStream()), null);
+
+    private BenchmarkVaults() {
+    }
+
+    /**
+     * Creates a vault whose masterkey is wrapped at the given scrypt cost, failing if the masterkey file records a
+     * different cost, as the unlock timings would otherwise not measure the requested setting.
+     */
+    static Path createVault(int scryptCostParam) throws Exception {
+        Path dir = Files.createTempDirectory("cryptomator-bench-");
+        Path vault = dir.resolve("vault");
+        QUIET.createVault(vault.toString(), PASSWORD, scryptCostParam);
+        try (Reader reader = Files.newBufferedReader(vault.resolve("masterkey.cryptomator"), StandardCharsets.UTF_8)) {
+            int actual = MasterkeyFile.read(reader).scryptCostParam;
+            if (actual != scryptCostParam) {
+                throw new IllegalStateException("Vault created with scrypt cost " + actual + " instead of " + scryptCostParam);
+            }
+        }
+        return vault;
+    }
+
+    static CryptoFileSystem open(Path vault) throws Exception {
+        return QUIET.openVault(vault.toString(), PASSWORD);
+    }
+
+    static Path randomFile(Path dir, String name, long size) throws IOException {
+        Path file = dir.resolve(name);
+        byte[] chunk = new byte[(int) Math.min(size, 1024 * 1024)];
+        new Random(size).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Deletes a local directory tree, i.e. the temporary vault's ciphertext or the benchmark's scratch files.
+     */
+    static void deleteLocal(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    static long parseSize(String size) {
+        return Sizes.parse(size);
+    }
+}
@@ -0,0 +1,59 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recursive delete of a tree of {@code directories} x {@code filesPerDirectory} empty files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeleteBenchmark {
+
+    @Param({"1", "8"})
+    public int parallelism;
+
+    @Param({"100"})
+    public int directories;
+
+    @Param({"100"})
+    public int filesPerDirectory;
+
+    private Path vault;
+    private CryptoFileSystem fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vault = BenchmarkVaults.createVault(16384);
+        fs = BenchmarkVaults.open(vault);
+    }
+
+    @Setup(Level.Invocation)
+    public void createTree() throws Exception {
+        for (int d = 0; d < directories; d++) {
+            Path dir = Files.createDirectories(fs.getPath("/tree/dir-" + d));
+            for (int f = 0; f < filesPerDirectory; f++) {
+                Files.createFile(dir.resolve("file-" + f));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fs.close();
+        BenchmarkVaults.deleteLocal(vault.getParent());
+    }
+
+    @Benchmark
+    public void deleteRecursive() throws Exception {
+        BenchmarkVaults.QUIET.deleteFile(fs, "/tree", true, parallelism);
+    }
+}
@@ -0,0 +1,57 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link VaultOperations#listFiles} on a single directory, reading the vault or the
+ * {@link PathIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    private Path vault;
+    private CryptoFileSystem fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vault = BenchmarkVaults.createVault(16384);
+        fs = BenchmarkVaults.open(vault);
+        Path dir = Files.createDirectory(fs.getPath("/list"));
+        for (int i = 0; i < entries; i++) {
+            Files.createFile(dir.resolve("entry-" + i + ".txt"));
+        }
+        if (indexed) {
+            BenchmarkVaults.QUIET.buildIndex(fs, Workers.defaultParallelism());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (indexed) {
+            BenchmarkVaults.QUIET.dropIndex(fs);
+        }
+        fs.close();
+        BenchmarkVaults.deleteLocal(vault.getParent());
+    }
+
+    @Benchmark
+    public void listFiles() throws Exception {
+        BenchmarkVaults.QUIET.listFiles(fs, "/list");
+    }
+}
@@ -0,0 +1,62 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate of creating small files, where per-file overhead (name encryption, header, directory entry)
+ * outweighs the content encryption.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmallFileBenchmark {
+
+    @Param({"0", "1024", "16384"})
+    public int fileSize;
+
+    private Path vault;
+    private CryptoFileSystem fs;
+    private byte[] content;
+    private Path dir;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vault = BenchmarkVaults.createVault(16384);
+        fs = BenchmarkVaults.open(vault);
+        content = new byte[fileSize];
+    }
+
+    /**
+     * Starts every iteration in a fresh directory, so directory size does not grow across the run.
+     */
+    @Setup(Level.Iteration)
+    public void newDirectory() throws Exception {
+        dir = Files.createDirectory(fs.getPath("/iteration-" + System.nanoTime()));
+        counter = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteDirectory() throws Exception {
+        BenchmarkVaults.QUIET.deleteFile(fs, dir.toString(), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fs.close();
+        BenchmarkVaults.deleteLocal(vault.getParent());
+    }
+
+    @Benchmark
+    public void createFile() throws Exception {
+        Files.write(dir.resolve("file-" + counter++), content);
+    }
+}
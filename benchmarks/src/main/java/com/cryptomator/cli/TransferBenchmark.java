@@ -0,0 +1,72 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-file upload and download through {@link VaultOperations}, and the copy loops underneath them.
+ * Throughput in MB/s is the file size divided by the reported time per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferBenchmark {
+
+    @Param({"1K", "1M", "64M", "1G"})
+    public String fileSize;
+
+    private Path vault;
+    private Path scratch;
+    private Path localFile;
+    private Path downloadTarget;
+    private CryptoFileSystem fs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vault = BenchmarkVaults.createVault(16384);
+        scratch = Files.createTempDirectory("cryptomator-bench-files-");
+        localFile = BenchmarkVaults.randomFile(scratch, "payload.bin", BenchmarkVaults.parseSize(fileSize));
+        downloadTarget = scratch.resolve("download.bin");
+        fs = BenchmarkVaults.open(vault);
+        BenchmarkVaults.QUIET.uploadFile(fs, localFile.toString(), "/download");
+        Files.createDirectories(fs.getPath("/upload"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fs.close();
+        BenchmarkVaults.deleteLocal(vault.getParent());
+        BenchmarkVaults.deleteLocal(scratch);
+    }
+
+    @Benchmark
+    public void upload() throws Exception {
+        BenchmarkVaults.QUIET.uploadFile(fs, localFile.toString(), "/upload");
+    }
+
+    @Benchmark
+    public void download() throws Exception {
+        BenchmarkVaults.QUIET.downloadFile(fs, "/download/payload.bin", downloadTarget.toString());
+    }
+
+    /**
+     * Baseline for {@link #upload()}: the {@link Files#copy} path the CLI used before {@link ChannelCopier}.
+     */
+    @Benchmark
+    public void uploadWithFilesCopy() throws Exception {
+        Files.copy(localFile, fs.getPath("/upload/payload.bin"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Benchmark
+    public void downloadWithFilesCopy() throws Exception {
+        Files.copy(fs.getPath("/download/payload.bin"), downloadTarget, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
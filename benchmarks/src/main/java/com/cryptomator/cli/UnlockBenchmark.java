@@ -0,0 +1,41 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link VaultOperations#openVault}, dominated by the scrypt key derivation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnlockBenchmark {
+
+    @Param({"16384", "32768", "65536", "131072"})
+    public int scryptCostParam;
+
+    private Path vault;
+
+    @Setup(Level.Trial)
+    public void createVault() throws Exception {
+        vault = BenchmarkVaults.createVault(scryptCostParam);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteVault() throws Exception {
+        BenchmarkVaults.deleteLocal(vault.getParent());
+    }
+
+    @Benchmark
+    public void openVault() throws Exception {
+        try (CryptoFileSystem fs = BenchmarkVaults.open(vault)) {
+            fs.getPath("/");
+        }
+    }
+}
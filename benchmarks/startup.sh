@@ -0,0 +1,68 @@
+#!/bin/bash
+#
+# Compares the startup time of the distribution variants on short commands: the shaded jar, the shaded jar
+# with the AppCDS archive (mvn package -Pappcds) and the native image (mvn package -Pnative). Variants
+# that have not been built are skipped.
+#
+# Usage: benchmarks/startup.sh [runs]   (run from the project root after building)
+
+set -e
+
+RUNS=${1:-10}
+JAR=target/cryptomator-cli-1.0.0.jar
+ARCHIVE=target/cryptomator-cli.jsa
+NATIVE=target/cryptomator-cli
+PASSWORD="startup-benchmark-password"
+
+if [ ! -f "$JAR" ]; then
+    echo "Error: $JAR not found, run mvn package first." >&2
+    exit 1
+fi
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+printf '%s\n%s\n' "$PASSWORD" "$PASSWORD" | java -jar "$JAR" create "$WORK/vault" > /dev/null
+echo "benchmark data" > "$WORK/file.txt"
+printf '%s\n' "$PASSWORD" | java -jar "$JAR" upload "$WORK/vault" "$WORK/file.txt" -d / > /dev/null
+
+variants=("jar")
+if [ -f "$ARCHIVE" ]; then
+    variants+=("jar+cds")
+fi
+if [ -x "$NATIVE" ]; then
+    variants+=("native")
+fi
+
+launch() {
+    case "$1" in
+        jar) java -jar "$JAR" "${@:2}" ;;
+        jar+cds) java -XX:SharedArchiveFile="$ARCHIVE" -jar "$JAR" "${@:2}" ;;
+        native) "$NATIVE" "${@:2}" ;;
+    esac
+}
+
+# prints the median and minimum wall-clock time in milliseconds over $RUNS runs
+measure() {
+    local variant=$1 command=$2
+    local times=()
+    for ((i = 0; i < RUNS; i++)); do
+        local start end
+        start=$(date +%s%N)
+        case "$command" in
+            help) launch "$variant" --help > /dev/null 2>&1 ;;
+            info) launch "$variant" info "$WORK/vault" > /dev/null 2>&1 ;;
+            list) printf '%s\n' "$PASSWORD" | launch "$variant" list "$WORK/vault" > /dev/null 2>&1 ;;
+        esac
+        end=$(date +%s%N)
+        times+=($(((end - start) / 1000000)))
+    done
+    printf '%s\n' "${times[@]}" | sort -n | awk '{ t[NR] = $1 } END { printf "%8d %8d", t[int((NR + 1) / 2)], t[1] }'
+}
+
+echo "Startup time over $RUNS runs, in ms (info and list include one scrypt key derivation)"
+printf '%-10s %-6s %8s %8s\n' "VARIANT" "CMD" "MEDIAN" "MIN"
+for variant in "${variants[@]}"; do
+    for command in help info list; do
+        printf '%-10s %-6s %s\n' "$variant" "$command" "$(measure "$variant" "$command")"
+    done
+done
@@ -0,0 +1,49 @@
+#!/bin/bash
+#
+# Builds an AppCDS archive for the shaded jar: runs a few short commands against a throwaway vault while
+# recording the loaded classes, then dumps the merged class list into a shared archive.
+#
+# Usage: cds-archive.sh <shaded jar> <archive>
+#
+# The archive is only valid for the exact jar it was created from and the JVM that created it:
+#   java -XX:SharedArchiveFile=<archive> -jar <shaded jar> ...
+
+set -e
+
+if [ $# -ne 2 ]; then
+    echo "Usage: $0 <shaded jar> <archive>" >&2
+    exit 1
+fi
+
+JAR="$(cd "$(dirname "$1")" && pwd)/$(basename "$1")"
+ARCHIVE="$2"
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+PASSWORD="cds-training-password"
+run=0
+
+train() {
+    run=$((run + 1))
+    java -XX:DumpLoadedClassList="$WORK/classes-$run.lst" -jar "$JAR" "$@" > /dev/null 2>&1 || true
+}
+
+echo "Recording classes loaded by training runs..."
+echo "training data" > "$WORK/file.txt"
+train --help
+printf '%s\n%s\n' "$PASSWORD" "$PASSWORD" | train create "$WORK/vault"
+train info "$WORK/vault"
+printf '%s\n' "$PASSWORD" | train upload "$WORK/vault" "$WORK/file.txt" -d /
+printf '%s\n' "$PASSWORD" | train list "$WORK/vault"
+printf '%s\n' "$PASSWORD" | train download "$WORK/vault" /file.txt -o "$WORK/out.txt"
+printf '%s\n' "$PASSWORD" | train find "$WORK/vault" /
+
+# ids are per run and would clash after merging; every class here comes from the boot, platform or
+# application loader, where the name alone identifies it. Dynamic proxies are generated at runtime and
+# cannot be archived.
+cat "$WORK"/classes-*.lst | grep -v -e '^#' -e 'Proxy[0-9]' | sed 's/ id: [0-9]*$//' | awk '!seen[$0]++' > "$WORK/classes.lst"
+echo "Dumping $(grep -vc '^@' "$WORK/classes.lst") classes into $ARCHIVE"
+if ! java -Xshare:dump -XX:SharedClassListFile="$WORK/classes.lst" -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" > "$WORK/dump.log" 2>&1; then
+    cat "$WORK/dump.log" >&2
+    exit 1
+fi
@@ -0,0 +1,240 @@
+package com.cryptomator.cli;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+
+/**
+ * Client side of the {@link VaultAgent} protocol.
+ */
+public class AgentClient {
+
+    private static final Path AGENT_DIR = Paths.get(System.getProperty("user.home"), ".cryptomator-cli", "agents");
+
+    private AgentClient() {
+    }
+
+    /**
+     * Creates the agent directory if needed and makes sure only the current user can access it, since its
+     * sockets give access to unlocked vaults without a password.
+     */
+    static Path agentDirectory() throws IOException {
+        Files.createDirectories(AGENT_DIR);
+        restrictToOwner(AGENT_DIR, "rwx------");
+        return AGENT_DIR;
+    }
+
+    static void restrictToOwner(Path path, String permissions) throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Set<PosixFilePermission> wanted = PosixFilePermissions.fromString(permissions);
+            if (!Files.getPosixFilePermissions(path).equals(wanted)) {
+                Files.setPosixFilePermissions(path, wanted);
+            }
+        }
+    }
+
+    static Path socketPath(String vaultPath) throws IOException {
+        return agentDirectory().resolve(vaultId(vaultPath) + ".sock");
+    }
+
+    static Path logPath(String vaultPath) throws IOException {
+        return agentDirectory().resolve(vaultId(vaultPath) + ".log");
+    }
+
+    static String vaultId(String vaultPath) {
+        String normalized = Paths.get(vaultPath).toAbsolutePath().normalize().toString();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static boolean isRunning(String vaultPath) {
+        try (SocketChannel ignored = connect(vaultPath)) {
+            return ignored != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static SocketChannel connect(String vaultPath) throws IOException {
+        Path socket = socketPath(vaultPath);
+        if (!Files.exists(socket)) {
+            return null;
+        }
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request to the agent for the given vault.
+     *
+     * @return the agent's response, or {@code null} if no agent is running for this vault
+     */
+    public static JsonObject send(String vaultPath, JsonObject request) throws IOException {
+        SocketChannel channel = tryConnect(vaultPath);
+        if (channel == null) {
+            return null;
+        }
+
+        try (channel;
+             Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8))) {
+            writer.write(request.toString());
+            writer.write('\n');
+            writer.flush();
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Agent closed the connection without a response");
+            }
+            return JsonParser.parseString(line).getAsJsonObject();
+        }
+    }
+
+    /**
+     * Sends a request followed by the raw contents of {@code body}, e.g. an upload from standard input.
+     *
+     * @return the agent's response, or {@code null} if no agent is running for this vault
+     */
+    public static JsonObject send(String vaultPath, JsonObject request, ReadableByteChannel body) throws IOException {
+        SocketChannel channel = tryConnect(vaultPath);
+        if (channel == null) {
+            return null;
+        }
+
+        try (channel) {
+            writeLine(channel, request);
+            ChannelCopier.copy(body, channel);
+            channel.shutdownOutput();
+            String line = readLine(Channels.newInputStream(channel));
+            if (line == null) {
+                throw new IOException("Agent closed the connection without a response");
+            }
+            return JsonParser.parseString(line).getAsJsonObject();
+        }
+    }
+
+    /**
+     * Sends a request whose successful response is a header line with the content {@code size},
+     * followed by that many raw bytes, which are written to {@code target}.
+     *
+     * @return the exit code, or {@code null} if no agent is running for this vault
+     */
+    public static Integer receive(String vaultPath, JsonObject request, WritableByteChannel target) throws IOException {
+        SocketChannel channel = tryConnect(vaultPath);
+        if (channel == null) {
+            return null;
+        }
+
+        try (channel) {
+            writeLine(channel, request);
+            String line = readLine(Channels.newInputStream(channel));
+            if (line == null) {
+                throw new IOException("Agent closed the connection without a response");
+            }
+            JsonObject header = JsonParser.parseString(line).getAsJsonObject();
+            if (header.has("size")) {
+                ChannelCopier.copy(channel, target, header.get("size").getAsLong());
+            }
+            return printResponse(header);
+        }
+    }
+
+    private static SocketChannel tryConnect(String vaultPath) {
+        try {
+            return connect(vaultPath);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static void writeLine(WritableByteChannel channel, JsonObject json) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((json.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+    }
+
+    /**
+     * Reads one line without buffering beyond it, so raw data following the line stays in the stream.
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs a request on the agent and prints its output.
+     *
+     * @return the exit code, or {@code null} if no agent is running and the caller should unlock the vault itself
+     */
+    public static Integer execute(String vaultPath, JsonObject request) throws IOException {
+        JsonObject response = send(vaultPath, request);
+        if (response == null) {
+            return null;
+        }
+        return printResponse(response);
+    }
+
+    /**
+     * Like {@link #execute(String, JsonObject)}, but streams {@code body} to the agent after the request.
+     */
+    public static Integer execute(String vaultPath, JsonObject request, ReadableByteChannel body) throws IOException {
+        JsonObject response = send(vaultPath, request, body);
+        if (response == null) {
+            return null;
+        }
+        return printResponse(response);
+    }
+
+    private static int printResponse(JsonObject response) {
+        if (response.has("output")) {
+            System.out.print(response.get("output").getAsString());
+        }
+        int exit = response.get("exit").getAsInt();
+        if (exit != 0 && response.has("error")) {
+            System.err.println("Error: " + response.get("error").getAsString());
+        }
+        return exit;
+    }
+
+    static JsonObject request(String op) {
+        JsonObject request = new JsonObject();
+        request.addProperty("op", op);
+        return request;
+    }
+}
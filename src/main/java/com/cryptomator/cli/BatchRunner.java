@@ -0,0 +1,290 @@
+package com.cryptomator.cli;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.cryptomator.cryptofs.CryptoFileSystem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes interactive shell commands read line by line against one open vault and reports each result
+ * as a JSON line.
+ * <p>
+ * Lines are parsed in order, so {@code cd} affects the lines that follow it. Operations run concurrently
+ * unless they touch overlapping vault paths or the same local file, in which case the later operation
+ * waits for the earlier one.
+ */
+class BatchRunner {
+
+    private final CryptoFileSystem fs;
+    private final PrintStream out;
+    private final int parallelism;
+    private final List<Operation> pending = new ArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    BatchRunner(CryptoFileSystem fs, PrintStream out, int parallelism) {
+        this.fs = fs;
+        this.out = out;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return number of failed operations
+     */
+    int run(BufferedReader input) throws IOException, InterruptedException {
+        ExecutorService executor = Workers.newExecutor("batch", parallelism, false);
+        Semaphore window = new Semaphore(parallelism * 4);
+        String currentPath = "/";
+        int lineNumber = 0;
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+", 2);
+                String cmd = parts[0].toLowerCase();
+                String arg = parts.length > 1 ? parts[1] : "";
+
+                if (cmd.equals("cd")) {
+                    String target = arg.isEmpty() ? "/" : VaultOperations.resolvePath(currentPath, arg);
+                    // earlier lines may still be creating the directory
+                    Operation probe = new Operation(lineNumber, line, cmd);
+                    probe.vaultPaths.add(target);
+                    for (Operation previous : pending) {
+                        if (previous.conflictsWith(probe)) {
+                            previous.future.join();
+                        }
+                    }
+                    if (Files.isDirectory(fs.getPath(target))) {
+                        currentPath = target;
+                        report(result(lineNumber, line, "ok", null), 0);
+                    } else {
+                        failures.incrementAndGet();
+                        report(result(lineNumber, line, "error", "Directory not found: " + target), 0);
+                    }
+                    continue;
+                }
+
+                Operation op;
+                try {
+                    op = parse(lineNumber, line, cmd, arg, currentPath);
+                } catch (IllegalArgumentException e) {
+                    failures.incrementAndGet();
+                    report(result(lineNumber, line, "error", e.getMessage()), 0);
+                    continue;
+                }
+
+                window.acquire();
+                List<CompletableFuture<?>> predecessors = new ArrayList<>();
+                for (Iterator<Operation> it = pending.iterator(); it.hasNext(); ) {
+                    Operation previous = it.next();
+                    if (previous.future.isDone()) {
+                        it.remove();
+                    } else if (previous.conflictsWith(op)) {
+                        predecessors.add(previous.future);
+                    }
+                }
+                op.future = CompletableFuture.allOf(predecessors.toArray(new CompletableFuture<?>[0]))
+                        .handleAsync((ignored, error) -> {
+                            try {
+                                execute(op);
+                            } finally {
+                                window.release();
+                            }
+                            return null;
+                        }, executor);
+                pending.add(op);
+            }
+            CompletableFuture.allOf(pending.stream().map(o -> o.future).toArray(CompletableFuture<?>[]::new)).join();
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        return failures.get();
+    }
+
+    private Operation parse(int lineNumber, String line, String cmd, String arg, String currentPath) {
+        Operation op = new Operation(lineNumber, line, cmd);
+        switch (cmd) {
+            case "ls":
+            case "dir":
+                op.vaultPaths.add(arg.isEmpty() ? currentPath : VaultOperations.resolvePath(currentPath, arg));
+                break;
+            case "mkdir":
+            case "rm":
+                requireArgument(arg, cmd + " <path>");
+                op.vaultPaths.add(VaultOperations.resolvePath(currentPath, arg));
+                break;
+            case "upload":
+            case "put":
+                requireArgument(arg, cmd + " <local-file>");
+                Path localPath = Paths.get(arg).toAbsolutePath();
+                op.localPath = localPath;
+                op.vaultPaths.add(VaultOperations.resolvePath(currentPath, localPath.getFileName().toString()));
+                break;
+            case "download":
+            case "get":
+                boolean recursive = arg.startsWith("-r ");
+                String[] args = (recursive ? arg.substring(3).trim() : arg).split("\\s+", 2);
+                if (args.length < 2) {
+                    throw new IllegalArgumentException("Usage: " + cmd + " [-r] <vault-path> <local-path>");
+                }
+                op.recursive = recursive;
+                op.vaultPaths.add(VaultOperations.resolvePath(currentPath, args[0]));
+                op.localPath = Paths.get(args[1]).toAbsolutePath();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + cmd);
+        }
+        return op;
+    }
+
+    private static void requireArgument(String arg, String usage) {
+        if (arg.isEmpty()) {
+            throw new IllegalArgumentException("Usage: " + usage);
+        }
+    }
+
+    private void execute(Operation op) {
+        long start = System.nanoTime();
+        JsonObject result = result(op.lineNumber, op.line, "ok", null);
+        try {
+            Path vaultPath = fs.getPath(op.vaultPaths.get(0));
+            switch (op.cmd) {
+                case "ls":
+                case "dir":
+                    result.add("entries", list(vaultPath));
+                    break;
+                case "mkdir":
+                    Files.createDirectories(vaultPath);
+                    PathIndex.created(vaultPath);
+                    break;
+                case "rm":
+                    if (Files.isDirectory(vaultPath)) {
+                        List<String> errors = new RecursiveDeleter(parallelism).delete(vaultPath, TransferProgress.entries("Deleted", null));
+                        if (!errors.isEmpty()) {
+                            PathIndex.refreshed(vaultPath, parallelism);
+                            throw new IOException(errors.size() + " entries could not be deleted, first: " + errors.get(0));
+                        }
+                    } else {
+                        Files.delete(vaultPath);
+                    }
+                    PathIndex.removed(vaultPath);
+                    break;
+                case "upload":
+                case "put":
+                    if (!Files.exists(op.localPath)) {
+                        throw new IllegalArgumentException("File not found: " + op.localPath);
+                    }
+                    ChannelCopier.copy(op.localPath, vaultPath);
+                    PathIndex.updated(vaultPath);
+                    break;
+                case "download":
+                case "get":
+                    if (op.recursive) {
+                        List<String> errors = new TreeCopier(parallelism, false, TreeCopier.DEFAULT_IN_FLIGHT_BYTES).copy(vaultPath, op.localPath, new TransferProgress("Downloaded", null));
+                        if (!errors.isEmpty()) {
+                            throw new IOException(errors.size() + " entries failed to download, first: " + errors.get(0));
+                        }
+                    } else {
+                        ChannelCopier.copy(vaultPath, op.localPath);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unhandled command: " + op.cmd);
+            }
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            result = result(op.lineNumber, op.line, "error", e.getMessage());
+        }
+        report(result, System.nanoTime() - start);
+    }
+
+    private JsonArray list(Path dir) throws IOException {
+        JsonArray entries = new JsonArray();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                JsonObject json = new JsonObject();
+                json.addProperty("name", entry.getFileName().toString());
+                json.addProperty("type", attrs.isDirectory() ? "dir" : "file");
+                if (!attrs.isDirectory()) {
+                    json.addProperty("size", attrs.size());
+                }
+                json.addProperty("modified", attrs.lastModifiedTime().toInstant().toString());
+                entries.add(json);
+            }
+        }
+        return entries;
+    }
+
+    private static JsonObject result(int lineNumber, String line, String status, String error) {
+        JsonObject json = new JsonObject();
+        json.addProperty("line", lineNumber);
+        json.addProperty("command", line);
+        json.addProperty("status", status);
+        if (error != null) {
+            json.addProperty("error", error);
+        }
+        return json;
+    }
+
+    private void report(JsonObject result, long nanos) {
+        result.addProperty("millis", nanos / 1_000_000.0);
+        synchronized (out) {
+            out.println(result);
+        }
+    }
+
+    private static class Operation {
+        final int lineNumber;
+        final String line;
+        final String cmd;
+        final List<String> vaultPaths = new ArrayList<>(1);
+        Path localPath;
+        boolean recursive;
+        CompletableFuture<?> future;
+
+        Operation(int lineNumber, String line, String cmd) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.cmd = cmd;
+        }
+
+        boolean conflictsWith(Operation other) {
+            if (localPath != null && other.localPath != null
+                    && (localPath.startsWith(other.localPath) || other.localPath.startsWith(localPath))) {
+                return true;
+            }
+            for (String a : vaultPaths) {
+                for (String b : other.vaultPaths) {
+                    if (overlaps(a, b)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean overlaps(String a, String b) {
+            return a.equals(b) || a.equals("/") || b.equals("/")
+                    || a.startsWith(b + "/") || b.startsWith(a + "/");
+        }
+    }
+}
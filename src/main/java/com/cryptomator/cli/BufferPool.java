@@ -0,0 +1,136 @@
+package com.cryptomator.cli;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reusable transfer buffers of one size. Callers block in {@link #take()} while {@code count} buffers are in
+ * use, which caps the memory held by concurrent transfers at {@code count * size}.
+ * <p>
+ * Buffers in use, from all pools and from {@link ChannelCopier}, are also charged to one process-wide
+ * memory budget ({@code --max-memory}), so the cap holds across concurrent operations. While a budget is
+ * set, released buffers are dropped instead of kept, so idle pools do not hold on to it.
+ */
+class BufferPool {
+
+    static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    private static final Object BUDGET = new Object();
+    private static long memoryLimit;
+    private static long memoryInUse;
+
+    private final int size;
+    private final Semaphore slots;
+    private final Queue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+
+    BufferPool(int count, int size) {
+        this.size = size;
+        this.slots = new Semaphore(count);
+    }
+
+    /**
+     * Splits a memory budget into one buffer per worker, but never below {@link #MIN_BUFFER_SIZE}. The
+     * budget is capped at the process-wide limit, if one is set.
+     */
+    static BufferPool forWorkers(int workers, long budgetBytes) {
+        long limit = memoryLimit();
+        long budget = limit > 0 ? Math.min(budgetBytes, limit) : budgetBytes;
+        int size = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_BUFFER_SIZE, budget / workers));
+        return new BufferPool(workers, size);
+    }
+
+    ByteBuffer take() throws InterruptedIOException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a transfer buffer");
+        }
+        try {
+            reserveMemory(size);
+        } catch (InterruptedIOException e) {
+            slots.release();
+            throw e;
+        }
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            buffer = ChannelCopier.allocate(size);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (memoryLimit() == 0) {
+            idle.add(buffer);
+        }
+        releaseMemory(size);
+        slots.release();
+    }
+
+    /**
+     * @param bytes maximum size of all transfer buffers in use, or 0 to remove the limit
+     */
+    static void limitMemory(long bytes) {
+        synchronized (BUDGET) {
+            memoryLimit = Math.max(0, bytes);
+            BUDGET.notifyAll();
+        }
+    }
+
+    static long memoryLimit() {
+        synchronized (BUDGET) {
+            return memoryLimit;
+        }
+    }
+
+    static long memoryInUse() {
+        synchronized (BUDGET) {
+            return memoryInUse;
+        }
+    }
+
+    /**
+     * Blocks until {@code bytes} fit into the memory limit. A reservation larger than the whole limit is
+     * granted once nothing else is reserved, so it cannot wait forever.
+     */
+    static void reserveMemory(long bytes) throws InterruptedIOException {
+        synchronized (BUDGET) {
+            while (memoryLimit > 0 && memoryInUse > 0 && memoryInUse + bytes > memoryLimit) {
+                try {
+                    BUDGET.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for transfer memory");
+                }
+            }
+            memoryInUse += bytes;
+        }
+    }
+
+    /**
+     * Reserves {@code bytes} for optional work such as reading ahead, but only if room for one more
+     * {@link ChannelCopier} buffer remains, so threads that stream data are never starved by read-ahead.
+     *
+     * @return whether the memory was reserved; if not, the caller should stream instead
+     */
+    static boolean tryReserveMemory(long bytes) {
+        synchronized (BUDGET) {
+            if (memoryLimit > 0 && memoryInUse + bytes + ChannelCopier.bufferSize() > memoryLimit) {
+                return false;
+            }
+            memoryInUse += bytes;
+            return true;
+        }
+    }
+
+    static void releaseMemory(long bytes) {
+        synchronized (BUDGET) {
+            memoryInUse -= bytes;
+            BUDGET.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.cryptomator.cli;
+
+/**
+ * A byte range in the syntax of an HTTP {@code Range} header without the unit: {@code start-end} with an
+ * inclusive end, {@code start-} up to the end of the file, or {@code -n} for the last {@code n} bytes.
+ */
+final class ByteRange {
+
+    private final long first;
+    private final long last;
+    private final boolean suffix;
+
+    private ByteRange(long first, long last, boolean suffix) {
+        this.first = first;
+        this.last = last;
+        this.suffix = suffix;
+    }
+
+    static ByteRange parse(String value) {
+        int dash = value.indexOf('-');
+        if (dash < 0) {
+            throw new IllegalArgumentException("Invalid range: " + value + " (expected start-end, start- or -length)");
+        }
+        try {
+            String start = value.substring(0, dash).trim();
+            String end = value.substring(dash + 1).trim();
+            if (start.isEmpty()) {
+                return new ByteRange(0, Long.parseLong(end), true);
+            }
+            long first = Long.parseLong(start);
+            long last = end.isEmpty() ? Long.MAX_VALUE : Long.parseLong(end);
+            if (first < 0 || last < first) {
+                throw new IllegalArgumentException("Invalid range: " + value + " (end before start)");
+            }
+            return new ByteRange(first, last, false);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid range: " + value + " (expected start-end, start- or -length)");
+        }
+    }
+
+    /**
+     * @return the offset of the first byte within a file of {@code size} bytes
+     */
+    long start(long size) {
+        if (!suffix && first >= size && size > 0) {
+            throw new IllegalArgumentException("Range starts at " + first + ", beyond the end of the file (" + size + " bytes)");
+        }
+        return suffix ? Math.max(0, size - last) : Math.min(first, size);
+    }
+
+    /**
+     * @return the offset after the last byte within a file of {@code size} bytes
+     */
+    long end(long size) {
+        return suffix ? size : Math.min(size, last == Long.MAX_VALUE ? size : last + 1);
+    }
+
+    @Override
+    public String toString() {
+        if (suffix) {
+            return "-" + last;
+        }
+        return first + "-" + (last == Long.MAX_VALUE ? "" : String.valueOf(last));
+    }
+}
@@ -0,0 +1,203 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies file contents through byte channels with large reusable buffers, instead of allocating a small
+ * buffer per file like {@link Files#copy(Path, Path, java.nio.file.CopyOption...)}.
+ * <p>
+ * Buffer size and whether to use direct buffers are process-wide settings, see {@link #configure}. Every
+ * copy is charged to the {@link Throttle#READ} and {@link Throttle#WRITE} limits, and buffers in use count
+ * against the {@link BufferPool} memory budget.
+ */
+final class ChannelCopier {
+
+    static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    private static volatile boolean directBuffers;
+    private static final ThreadLocal<ByteBuffer> THREAD_BUFFER = new ThreadLocal<>();
+
+    private ChannelCopier() {
+    }
+
+    static void configure(int size, boolean direct) {
+        bufferSize = Math.max(BufferPool.MIN_BUFFER_SIZE, size);
+        directBuffers = direct;
+    }
+
+    /**
+     * @return the configured buffer size, reduced to the memory limit if that is smaller
+     */
+    static int bufferSize() {
+        long limit = BufferPool.memoryLimit();
+        return limit > 0 ? (int) Math.max(BufferPool.MIN_BUFFER_SIZE, Math.min(bufferSize, limit)) : bufferSize;
+    }
+
+    static ByteBuffer allocate(int size) {
+        return directBuffers ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static ByteBuffer threadBuffer() {
+        int size = bufferSize();
+        ByteBuffer buffer = THREAD_BUFFER.get();
+        if (buffer == null || buffer.capacity() != size || buffer.isDirect() != directBuffers) {
+            buffer = allocate(size);
+            THREAD_BUFFER.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Takes this thread's buffer for one copy, charged to the memory budget until {@link #giveBack}.
+     */
+    private static ByteBuffer borrow() throws InterruptedIOException {
+        ByteBuffer buffer = threadBuffer();
+        BufferPool.reserveMemory(buffer.capacity());
+        return buffer;
+    }
+
+    private static void giveBack(ByteBuffer buffer) {
+        buffer.clear();
+        if (BufferPool.memoryLimit() > 0) {
+            // idle threads should not keep memory that counts against the limit
+            THREAD_BUFFER.remove();
+        }
+        BufferPool.releaseMemory(buffer.capacity());
+    }
+
+    /**
+     * Copies {@code source} to {@code target} with this thread's reusable buffer, replacing the target if it exists.
+     *
+     * @return number of bytes copied
+     */
+    static long copy(Path source, Path target) throws IOException {
+        ByteBuffer buffer = borrow();
+        try {
+            return copy(source, target, buffer);
+        } finally {
+            giveBack(buffer);
+        }
+    }
+
+    static long copy(Path source, Path target, ByteBuffer buffer) throws IOException {
+        long start = Stats.start();
+        long bytes;
+        try (SeekableByteChannel in = Files.newByteChannel(source, StandardOpenOption.READ);
+             SeekableByteChannel out = Files.newByteChannel(target, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            bytes = copy(in, out, buffer);
+        }
+        Stats.operation(direction(source, target), start, bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the {@link Stats} operation type of a copy between the two paths' file systems
+     */
+    static String direction(Path source, Path target) {
+        boolean fromVault = source.getFileSystem() instanceof CryptoFileSystem;
+        boolean toVault = target.getFileSystem() instanceof CryptoFileSystem;
+        if (fromVault == toVault) {
+            return "copy";
+        }
+        return fromVault ? "download" : "upload";
+    }
+
+    static long copy(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = borrow();
+        try {
+            return copy(in, out, buffer);
+        } finally {
+            giveBack(buffer);
+        }
+    }
+
+    static long copy(ReadableByteChannel in, WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        long total = 0;
+        buffer.clear();
+        int read;
+        while ((read = in.read(buffer)) != -1 || buffer.position() > 0) {
+            Throttle.READ.acquire(read);
+            buffer.flip();
+            int written = out.write(buffer);
+            Throttle.WRITE.acquire(written);
+            total += written;
+            buffer.compact();
+        }
+        buffer.clear();
+        return total;
+    }
+
+    /**
+     * Copies exactly {@code length} bytes, failing if {@code in} ends early.
+     */
+    static void copy(ReadableByteChannel in, WritableByteChannel out, long length) throws IOException {
+        ByteBuffer buffer = borrow();
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = in.read(buffer);
+                if (read == -1) {
+                    throw new IOException("Stream ended " + remaining + " bytes early");
+                }
+                Throttle.READ.acquire(read);
+                buffer.flip();
+                Throttle.WRITE.acquire(read);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                remaining -= read;
+            }
+        } finally {
+            giveBack(buffer);
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes from {@code position} in {@code in} to {@code targetPosition} in {@code out}
+     * with positional reads and writes, so several threads can fill disjoint ranges of the same files.
+     */
+    static void copyRange(FileChannel in, long position, long length, FileChannel out, long targetPosition) throws IOException {
+        ByteBuffer buffer = borrow();
+        try {
+            long copied = 0;
+            while (copied < length) {
+                buffer.clear();
+                if (length - copied < buffer.capacity()) {
+                    buffer.limit((int) (length - copied));
+                }
+                int read = in.read(buffer, position + copied);
+                if (read == -1) {
+                    throw new IOException("File ended " + (length - copied) + " bytes early");
+                }
+                Throttle.READ.acquire(read);
+                buffer.flip();
+                Throttle.WRITE.acquire(read);
+                long writePosition = targetPosition + copied;
+                while (buffer.hasRemaining()) {
+                    writePosition += out.write(buffer, writePosition);
+                }
+                copied += read;
+            }
+        } finally {
+            giveBack(buffer);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decrypts a range of one large vault file on several threads.
+ * <p>
+ * The range is split into pieces whose boundaries fall on the vault format's 32 KiB cleartext chunks, so no
+ * chunk is decrypted twice. Each worker claims pieces in order, reads them with positional reads through its
+ * own channel and writes them at the matching offset of the target file, which is preallocated to its final
+ * size up front.
+ */
+class ChunkedDownload {
+
+    /**
+     * Ranges below this size are copied on the calling thread, where starting workers would cost more than it saves.
+     */
+    static final long MIN_PARALLEL_SIZE = 16L * 1024 * 1024;
+
+    private static final long MIN_PIECE_SIZE = 4L * 1024 * 1024;
+    private static final int PIECES_PER_WORKER = 4;
+
+    private final int parallelism;
+
+    ChunkedDownload(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Writes bytes {@code start} (inclusive) to {@code end} (exclusive) of {@code source} to {@code target},
+     * replacing the target if it exists.
+     */
+    void download(Path source, long start, long end, Path target) throws IOException {
+        long length = end - start;
+        boolean preallocated = false;
+        // the source is opened first, so an unreadable vault file leaves an existing target untouched
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw")) {
+            file.setLength(length);
+            preallocated = true;
+            FileChannel out = file.getChannel();
+            if (parallelism == 1 || length < MIN_PARALLEL_SIZE) {
+                ChannelCopier.copyRange(in, start, length, out, 0);
+            } else {
+                copyPieces(source, start, end, out);
+            }
+            out.force(false);
+        } catch (IOException | RuntimeException e) {
+            if (preallocated && Files.isRegularFile(target)) {
+                // the file would keep its full size with zero-filled holes and look complete
+                try {
+                    Files.delete(target);
+                } catch (IOException deleteFailure) {
+                    e.addSuppressed(deleteFailure);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void copyPieces(Path source, long start, long end, FileChannel out) throws IOException {
+        List<Long> bounds = pieceBounds(start, end);
+        int pieces = bounds.size() - 1;
+        int workers = Math.min(parallelism, pieces);
+        AtomicInteger next = new AtomicInteger();
+
+        ExecutorService executor = Workers.newExecutor("download", workers, false);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                results.add(executor.submit(() -> {
+                    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                        for (int piece = next.getAndIncrement(); piece < pieces; piece = next.getAndIncrement()) {
+                            long from = bounds.get(piece);
+                            ChannelCopier.copyRange(in, from, bounds.get(piece + 1) - from, out, from - start);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // stop the other workers after their current piece
+                        next.set(pieces);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                await(result);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return {@code start}, the chunk-aligned boundaries between the pieces, and {@code end}
+     */
+    private List<Long> pieceBounds(long start, long end) {
+        long pieceSize = Math.max(MIN_PIECE_SIZE, (end - start) / ((long) parallelism * PIECES_PER_WORKER));
+        pieceSize = (pieceSize + TextViewer.CHUNK_SIZE - 1) / TextViewer.CHUNK_SIZE * TextViewer.CHUNK_SIZE;
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        for (long bound = (start / pieceSize + 1) * pieceSize; bound < end; bound += pieceSize) {
+            bounds.add(bound);
+        }
+        bounds.add(end);
+        return bounds;
+    }
+
+    private static void await(Future<Void> result) throws IOException {
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
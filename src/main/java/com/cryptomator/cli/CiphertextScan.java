@@ -0,0 +1,284 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Structural statistics of a vault's ciphertext tree ({@code d/<2>/<30>/}), gathered without the password.
+ * <p>
+ * Every storage directory is listed once, in parallel per two-character prefix directory. Only counters, a
+ * fixed-size histogram and bounded samples are kept, so memory does not grow with the size of the vault.
+ * Which storage directory belongs to which directory node is only known with the masterkey, so orphaned
+ * storage directories are detected by count: every directory node ({@code dir.c9r}) plus the root should
+ * have exactly one.
+ */
+class CiphertextScan {
+
+    private static final int SAMPLES = 10;
+    private static final int LARGEST = 5;
+    private static final Pattern ENCRYPTED_NAME = Pattern.compile("[A-Za-z0-9_=-]+\\.(c9r|c9s)");
+
+    private long prefixDirectories;
+    private long storageDirectories;
+    private long emptyStorageDirectories;
+    private long files;
+    private long directories;
+    private long symlinks;
+    private long shortenedNames;
+    private long ciphertextBytes;
+    private long entries;
+    private final long[] fanOut = new long[33];
+    private final PriorityQueue<Fanout> largest = new PriorityQueue<>(Comparator.comparingLong(f -> f.entries));
+    private final Problems conflicts = new Problems();
+    private final Problems incomplete = new Problems();
+    private final Problems unknown = new Problems();
+
+    private static final class Fanout {
+        final Path storageDir;
+        final long entries;
+
+        Fanout(Path storageDir, long entries) {
+            this.storageDir = storageDir;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Counts and the first few paths of one kind of problem.
+     */
+    private static final class Problems {
+        long count;
+        final List<Path> samples = new ArrayList<>();
+
+        void add(Path path) {
+            count++;
+            if (samples.size() < SAMPLES) {
+                samples.add(path);
+            }
+        }
+
+        void addAll(Problems other) {
+            count += other.count;
+            for (Path path : other.samples) {
+                if (samples.size() < SAMPLES) {
+                    samples.add(path);
+                }
+            }
+        }
+    }
+
+    static CiphertextScan scan(Path vaultPath, int parallelism) throws IOException {
+        Path dataDir = vaultPath.resolve("d");
+        if (!Files.isDirectory(dataDir)) {
+            throw new IllegalArgumentException("Not a format 8 vault: " + dataDir + " not found");
+        }
+
+        CiphertextScan total = new CiphertextScan();
+        ExecutorService workers = Workers.newExecutor("scan", parallelism, false);
+        List<Future<CiphertextScan>> parts = new ArrayList<>();
+        try {
+            try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(dataDir)) {
+                for (Path prefix : prefixes) {
+                    if (Files.isDirectory(prefix, LinkOption.NOFOLLOW_LINKS)) {
+                        parts.add(workers.submit(() -> scanPrefix(prefix)));
+                    } else {
+                        total.unknown.add(prefix);
+                    }
+                }
+            }
+            for (Future<CiphertextScan> part : parts) {
+                total.merge(part.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Scan interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        return total;
+    }
+
+    private static CiphertextScan scanPrefix(Path prefix) throws IOException {
+        CiphertextScan scan = new CiphertextScan();
+        scan.prefixDirectories = 1;
+        try (DirectoryStream<Path> storageDirs = Files.newDirectoryStream(prefix)) {
+            for (Path storageDir : storageDirs) {
+                if (Files.isDirectory(storageDir, LinkOption.NOFOLLOW_LINKS)) {
+                    scan.scanStorageDirectory(storageDir);
+                } else {
+                    scan.unknown.add(storageDir);
+                }
+            }
+        }
+        return scan;
+    }
+
+    private void scanStorageDirectory(Path storageDir) throws IOException {
+        storageDirectories++;
+        long count = 0;
+        try (DirectoryStream<Path> nodes = Files.newDirectoryStream(storageDir)) {
+            for (Path node : nodes) {
+                String name = node.getFileName().toString();
+                if (name.equals("dirid.c9r")) {
+                    continue;
+                }
+                count++;
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(node, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    // removed while scanning
+                    continue;
+                }
+                if (!name.endsWith(".c9r") && !name.endsWith(".c9s")) {
+                    unknown.add(node);
+                } else if (!ENCRYPTED_NAME.matcher(name).matches()) {
+                    // e.g. "ABC (1).c9r" or "ABC (conflicted copy).c9r" from a sync client
+                    conflicts.add(node);
+                } else if (name.endsWith(".c9s")) {
+                    shortenedNames++;
+                    if (!attrs.isDirectory() || !Files.exists(node.resolve("name.c9s"))) {
+                        incomplete.add(node);
+                    } else {
+                        scanNode(node, attrs, true);
+                    }
+                } else {
+                    scanNode(node, attrs, false);
+                }
+            }
+        }
+        if (count == 0) {
+            emptyStorageDirectories++;
+        }
+        entries += count;
+        fanOut[64 - Long.numberOfLeadingZeros(count)]++;
+        offerLargest(new Fanout(storageDir, count));
+    }
+
+    private void offerLargest(Fanout candidate) {
+        if (largest.size() < LARGEST) {
+            largest.add(candidate);
+        } else if (candidate.entries > largest.peek().entries) {
+            largest.poll();
+            largest.add(candidate);
+        }
+    }
+
+    /**
+     * Classifies a {@code .c9r} node or the contents of a {@code .c9s} node as file, directory or symlink.
+     */
+    private void scanNode(Path node, BasicFileAttributes attrs, boolean shortened) throws IOException {
+        if (!attrs.isDirectory()) {
+            if (shortened) {
+                incomplete.add(node);
+            } else {
+                files++;
+                ciphertextBytes += attrs.size();
+            }
+        } else if (Files.exists(node.resolve("dir.c9r"))) {
+            directories++;
+        } else if (Files.exists(node.resolve("symlink.c9r"))) {
+            symlinks++;
+        } else if (shortened && Files.exists(node.resolve("contents.c9r"))) {
+            files++;
+            ciphertextBytes += Files.size(node.resolve("contents.c9r"));
+        } else {
+            incomplete.add(node);
+        }
+    }
+
+    private void merge(CiphertextScan other) {
+        prefixDirectories += other.prefixDirectories;
+        storageDirectories += other.storageDirectories;
+        emptyStorageDirectories += other.emptyStorageDirectories;
+        files += other.files;
+        directories += other.directories;
+        symlinks += other.symlinks;
+        shortenedNames += other.shortenedNames;
+        ciphertextBytes += other.ciphertextBytes;
+        entries += other.entries;
+        for (int i = 0; i < fanOut.length; i++) {
+            fanOut[i] += other.fanOut[i];
+        }
+        other.largest.forEach(this::offerLargest);
+        conflicts.addAll(other.conflicts);
+        incomplete.addAll(other.incomplete);
+        unknown.addAll(other.unknown);
+    }
+
+    void print(PrintStream out) {
+        out.println("\n=== Ciphertext Tree ===\n");
+        out.println("Directories: " + directories + " (+ root)");
+        out.println("Files: " + files);
+        out.println("Symlinks: " + symlinks);
+        out.println("Ciphertext Size: " + VaultOperations.formatSize(ciphertextBytes));
+        out.println("Shortened Names (.c9s): " + shortenedNames);
+        out.println("Storage Directories: " + storageDirectories + " in " + prefixDirectories + " prefix directories");
+
+        out.println("\nEntries per storage directory:");
+        List<Fanout> top = new ArrayList<>(largest);
+        top.sort(Comparator.comparingLong((Fanout f) -> f.entries).reversed());
+        out.printf("  average %.1f, max %d, empty %d%n", storageDirectories == 0 ? 0.0 : (double) entries / storageDirectories,
+                top.isEmpty() ? 0 : top.get(0).entries, emptyStorageDirectories);
+        for (int i = 0; i < fanOut.length; i++) {
+            if (fanOut[i] > 0) {
+                String range = i == 0 ? "0" : i == 1 ? "1" : (1L << (i - 1)) + "-" + ((1L << i) - 1);
+                out.printf("  %15s: %d%n", range, fanOut[i]);
+            }
+        }
+        out.println("Largest:");
+        for (Fanout fanout : top) {
+            out.printf("  %8d  %s%n", fanout.entries, fanout.storageDir);
+        }
+
+        out.println("\nProblems:");
+        long expected = directories + 1;
+        boolean healthy = true;
+        if (storageDirectories > expected) {
+            out.println("  Orphaned storage directories: " + (storageDirectories - expected)
+                    + " (more storage directories than directory nodes, e.g. left behind by an interrupted sync)");
+            healthy = false;
+        } else if (storageDirectories < expected) {
+            out.println("  Missing storage directories: " + (expected - storageDirectories)
+                    + " (directory nodes whose content is not there; not yet synced or lost)");
+            healthy = false;
+        }
+        healthy &= printProblems(out, "Conflicting names", conflicts);
+        healthy &= printProblems(out, "Incomplete nodes", incomplete);
+        healthy &= printProblems(out, "Unknown entries", unknown);
+        if (healthy) {
+            out.println("  none found");
+        }
+        out.println();
+    }
+
+    private static boolean printProblems(PrintStream out, String label, Problems problems) {
+        if (problems.count == 0) {
+            return true;
+        }
+        out.println("  " + label + ": " + problems.count);
+        for (Path path : problems.samples) {
+            out.println("    " + path);
+        }
+        if (problems.count > problems.samples.size()) {
+            out.println("    ...");
+        }
+        return false;
+    }
+}
@@ -1,11 +1,36 @@
 package com.cryptomator.cli;
 
+import com.google.gson.JsonObject;
+import org.cryptomator.cryptofs.CryptoFileSystem;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.Console;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 @Command(
@@ -19,16 +44,56 @@ import java.util.concurrent.Callable;
         CryptomatorCLI.UnlockCommand.class,
         CryptomatorCLI.UploadCommand.class,
         CryptomatorCLI.DownloadCommand.class,
+        CryptomatorCLI.CopyCommand.class,
+        CryptomatorCLI.ExportCommand.class,
+        CryptomatorCLI.ImportCommand.class,
         CryptomatorCLI.MkdirCommand.class,
         CryptomatorCLI.DeleteCommand.class,
         CryptomatorCLI.InfoCommand.class,
-        CryptomatorCLI.ChangePasswordCommand.class
+        CryptomatorCLI.ChangePasswordCommand.class,
+        CryptomatorCLI.KdfBenchmarkCommand.class,
+        CryptomatorCLI.AgentCommand.class,
+        CryptomatorCLI.ServeCommand.class,
+        CryptomatorCLI.BatchCommand.class,
+        CryptomatorCLI.SyncCommand.class,
+        CryptomatorCLI.WatchCommand.class,
+        CryptomatorCLI.FindCommand.class,
+        CryptomatorCLI.DuCommand.class,
+        CryptomatorCLI.IndexCommand.class,
+        CryptomatorCLI.VerifyCommand.class
     }
 )
 public class CryptomatorCLI implements Callable<Integer> {
 
+    private static BufferedReader stdin;
+
+    @Option(names = "--stats", arity = "0..1", fallbackValue = "text", paramLabel = "FORMAT",
+            description = "Print phase timings, bytes moved and per-operation latencies to stderr when the command finishes: text (default) or json")
+    void setStats(String format) {
+        Stats.enable(Stats.Format.parse(format));
+    }
+
+    @Option(names = "--max-read-rate", paramLabel = "RATE",
+            description = "Limit the combined read throughput of all transfers, e.g. 20M for 20 MB/s, or off (default)")
+    void setMaxReadRate(String rate) {
+        Throttle.READ.setRate(Sizes.parseLimit(rate));
+    }
+
+    @Option(names = "--max-write-rate", paramLabel = "RATE",
+            description = "Limit the combined write throughput of all transfers, e.g. 20M for 20 MB/s, or off (default)")
+    void setMaxWriteRate(String rate) {
+        Throttle.WRITE.setRate(Sizes.parseLimit(rate));
+    }
+
+    @Option(names = "--max-memory", paramLabel = "SIZE",
+            description = "Limit the memory of all transfer buffers in use, e.g. 64M, or off (default); concurrent copies wait for a buffer")
+    void setMaxMemory(String size) {
+        BufferPool.limitMemory(Sizes.parseLimit(size));
+    }
+
     public static void main(String[] args) {
         int exitCode = new CommandLine(new CryptomatorCLI()).execute(args);
+        Stats.report(System.err);
         System.exit(exitCode);
     }
 
@@ -39,14 +104,100 @@ public class CryptomatorCLI implements Callable<Integer> {
     }
 
     static String readPassword(String prompt) {
+        return readPassword(prompt, System.out);
+    }
+
+    /**
+     * @param promptOut where to print the prompt when there is no console, e.g. stderr while stdout carries file data
+     */
+    static String readPassword(String prompt, PrintStream promptOut) {
         Console console = System.console();
         if (console != null) {
             char[] password = console.readPassword(prompt);
             return new String(password);
         } else {
-            System.out.print(prompt);
-            return new java.util.Scanner(System.in).nextLine();
+            promptOut.print(prompt);
+            promptOut.flush();
+            try {
+                String line = stdin().readLine();
+                if (line == null) {
+                    throw new IllegalStateException("No password given on standard input");
+                }
+                return line;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the password from the controlling terminal, for commands that read file data from stdin.
+     */
+    static String readPasswordFromTerminal(String prompt) {
+        Console console = System.console();
+        if (console != null) {
+            return new String(console.readPassword(prompt));
+        }
+        System.err.print(prompt);
+        setTerminalEcho(false);
+        try (BufferedReader tty = Files.newBufferedReader(Paths.get("/dev/tty"))) {
+            String line = tty.readLine();
+            if (line == null) {
+                throw new IllegalStateException("No password given on the terminal");
+            }
+            return line;
+        } catch (IOException e) {
+            throw new IllegalStateException("No terminal to read the password from while stdin carries data. "
+                    + "Start an agent for the vault to stream from scripts.");
+        } finally {
+            setTerminalEcho(true);
+            System.err.println();
+        }
+    }
+
+    private static void setTerminalEcho(boolean on) {
+        try {
+            new ProcessBuilder("stty", on ? "echo" : "-echo")
+                    .redirectInput(new File("/dev/tty"))
+                    .start()
+                    .waitFor();
+        } catch (IOException e) {
+            // no stty available, the password is echoed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void configureBuffers(int bufferSizeKb, boolean directBuffers) {
+        ChannelCopier.configure(bufferSizeKb * 1024, directBuffers);
+    }
+
+    /**
+     * Shared reader for standard input, so that a password and further input (interactive or batch
+     * commands) can be piped in one stream.
+     */
+    static synchronized BufferedReader stdin() {
+        if (stdin == null) {
+            stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
         }
+        return stdin;
+    }
+
+    /**
+     * Runs the request on a running agent for the vault, if there is one.
+     *
+     * @return the exit code, or {@code null} if the caller has to unlock the vault itself
+     */
+    static Integer viaAgent(boolean noAgent, String vaultPath, JsonObject request) throws Exception {
+        if (noAgent) {
+            return null;
+        }
+        long start = Stats.start();
+        Integer exit = AgentClient.execute(vaultPath, request);
+        if (exit != null) {
+            Stats.operation("agent", start, 0);
+        }
+        return exit;
     }
 
     @Command(name = "create", description = "Create a new Cryptomator vault")
@@ -54,6 +205,9 @@ public class CryptomatorCLI implements Callable<Integer> {
         @Parameters(index = "0", description = "Path where to create the vault")
         private String vaultPath;
 
+        @Option(names = "--kdf-target-ms", description = "Pick the strongest scrypt cost whose key derivation takes at most this long on this host (default: fixed cost 32768)")
+        private Long kdfTargetMillis;
+
         @Override
         public Integer call() {
             try {
@@ -71,7 +225,11 @@ public class CryptomatorCLI implements Callable<Integer> {
                 }
 
                 VaultOperations ops = new VaultOperations();
-                ops.createVault(vaultPath, password);
+                if (kdfTargetMillis != null) {
+                    ops.createVault(vaultPath, password, ops.calibrateKdf(kdfTargetMillis));
+                } else {
+                    ops.createVault(vaultPath, password);
+                }
                 System.out.println("Vault created successfully at: " + vaultPath);
                 System.out.println("Format: 8 (SIV_GCM) - Compatible with Cryptomator desktop");
                 return 0;
@@ -90,9 +248,19 @@ public class CryptomatorCLI implements Callable<Integer> {
         @Option(names = {"-p", "--path"}, description = "Path inside vault (default: /)", defaultValue = "/")
         private String innerPath;
 
+        @Option(names = "--no-agent", description = "Unlock the vault even if an agent is running")
+        private boolean noAgent;
+
         @Override
         public Integer call() {
             try {
+                JsonObject request = AgentClient.request("list");
+                request.addProperty("path", innerPath);
+                Integer agentExit = viaAgent(noAgent, vaultPath, request);
+                if (agentExit != null) {
+                    return agentExit;
+                }
+
                 String password = readPassword("Enter vault password: ");
                 
                 VaultOperations ops = new VaultOperations();
@@ -110,13 +278,19 @@ public class CryptomatorCLI implements Callable<Integer> {
         @Parameters(index = "0", description = "Path to the vault")
         private String vaultPath;
 
+        @Option(names = "--cache-size", description = "Maximum number of cached attribute entries in the shell (default: 10000)", defaultValue = "10000")
+        private int cacheSize;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of background transfers (upload/download ... &) running at once (default: number of CPUs, at least 4)")
+        private int parallelism = TransferQueue.defaultParallelism();
+
         @Override
         public Integer call() {
             try {
                 String password = readPassword("Enter vault password: ");
                 
                 VaultOperations ops = new VaultOperations();
-                ops.interactiveMode(vaultPath, password);
+                ops.interactiveMode(vaultPath, password, cacheSize, parallelism);
                 return 0;
             } catch (Exception e) {
                 System.err.println("Error: " + e.getMessage());
@@ -130,26 +304,99 @@ public class CryptomatorCLI implements Callable<Integer> {
         @Parameters(index = "0", description = "Path to the vault")
         private String vaultPath;
 
-        @Parameters(index = "1", description = "Local file to upload")
+        @Parameters(index = "1", description = "Local file (or directory with -r) to upload, or - for stdin")
         private String localFile;
 
-        @Option(names = {"-d", "--dest"}, description = "Destination path in vault (default: /)", defaultValue = "/")
+        @Option(names = {"-d", "--dest"}, description = "Destination path in vault (default: /); the target file path when reading stdin", defaultValue = "/")
         private String destPath;
 
+        @Option(names = {"-r", "--recursive"}, description = "Upload a directory tree")
+        private boolean recursive;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of concurrent file uploads with -r (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Option(names = "--virtual-threads", description = "Use virtual threads for -r uploads when running on Java 21+")
+        private boolean virtualThreads;
+
+        @Option(names = "--resume", description = "Checkpoint progress and continue an interrupted upload of the same file")
+        private boolean resume;
+
+        @Option(names = "--buffer-size", description = "Copy buffer size in KB (default: 1024)", defaultValue = "1024")
+        private int bufferSizeKb;
+
+        @Option(names = "--direct-buffer", description = "Use direct (off-heap) copy buffers")
+        private boolean directBuffers;
+
+        @Option(names = "--no-agent", description = "Unlock the vault even if an agent is running")
+        private boolean noAgent;
+
         @Override
         public Integer call() {
             try {
+                configureBuffers(bufferSizeKb, directBuffers);
+                if (localFile.equals("-")) {
+                    return uploadStdin();
+                }
+                if (Files.isDirectory(Paths.get(localFile)) && !recursive) {
+                    System.err.println("Error: " + localFile + " is a directory. Use -r to upload recursively.");
+                    return 1;
+                }
+                if (recursive && resume) {
+                    System.err.println("Error: --resume cannot be used with -r");
+                    return 1;
+                }
+
+                JsonObject request = AgentClient.request("upload");
+                request.addProperty("localFile", Paths.get(localFile).toAbsolutePath().toString());
+                request.addProperty("dest", destPath);
+                request.addProperty("recursive", recursive);
+                request.addProperty("parallel", parallelism);
+                request.addProperty("resume", resume);
+                Integer agentExit = viaAgent(noAgent, vaultPath, request);
+                if (agentExit != null) {
+                    if (agentExit == 0) {
+                        System.out.println(recursive ? "Directory uploaded successfully!" : "File uploaded successfully!");
+                    }
+                    return agentExit;
+                }
+
                 String password = readPassword("Enter vault password: ");
                 
                 VaultOperations ops = new VaultOperations();
-                ops.uploadFile(vaultPath, password, localFile, destPath);
-                System.out.println("File uploaded successfully!");
+                if (recursive) {
+                    ops.uploadDirectory(vaultPath, password, localFile, destPath, parallelism, virtualThreads);
+                    System.out.println("Directory uploaded successfully!");
+                } else {
+                    ops.uploadFile(vaultPath, password, localFile, destPath, resume);
+                    System.out.println("File uploaded successfully!");
+                }
                 return 0;
             } catch (Exception e) {
                 System.err.println("Error: " + e.getMessage());
                 return 1;
             }
         }
+
+        private int uploadStdin() throws Exception {
+            if (recursive || resume) {
+                System.err.println("Error: -r and --resume cannot be used when uploading from stdin");
+                return 1;
+            }
+            FileChannel in = new FileInputStream(FileDescriptor.in).getChannel();
+
+            JsonObject request = AgentClient.request("upload");
+            request.addProperty("stdin", true);
+            request.addProperty("dest", destPath);
+            Integer agentExit = noAgent ? null : AgentClient.execute(vaultPath, request, in);
+            if (agentExit != null) {
+                return agentExit;
+            }
+
+            String password = readPasswordFromTerminal("Enter vault password: ");
+            new VaultOperations().uploadStream(vaultPath, password, in, destPath);
+            return 0;
+        }
     }
 
     @Command(name = "download", aliases = {"get"}, description = "Download a file from the vault")
@@ -157,20 +404,215 @@ public class CryptomatorCLI implements Callable<Integer> {
         @Parameters(index = "0", description = "Path to the vault")
         private String vaultPath;
 
-        @Parameters(index = "1", description = "File path inside vault")
+        @Parameters(index = "1", description = "File (or directory with -r) path inside vault")
         private String vaultFile;
 
-        @Option(names = {"-o", "--output"}, description = "Output file path", required = true)
+        @Option(names = {"-o", "--output"}, description = "Output file path (local directory with -r), or - for stdout", required = true)
         private String outputPath;
 
+        @Option(names = {"-r", "--recursive"}, description = "Download a directory tree")
+        private boolean recursive;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of concurrent file downloads with -r, or of threads decrypting a single large file (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Option(names = "--range", description = "Download only a byte range: start-end (inclusive), start- or -length")
+        private String range;
+
+        @Option(names = "--resume", description = "Checkpoint progress and continue an interrupted download of the same file")
+        private boolean resume;
+
+        @Option(names = "--max-in-flight", description = "Memory for data in flight with -r, in MB (default: 64)", defaultValue = "64")
+        private long maxInFlightMb;
+
+        @Option(names = "--buffer-size", description = "Copy buffer size in KB (default: 1024)", defaultValue = "1024")
+        private int bufferSizeKb;
+
+        @Option(names = "--direct-buffer", description = "Use direct (off-heap) copy buffers")
+        private boolean directBuffers;
+
+        @Option(names = "--no-agent", description = "Unlock the vault even if an agent is running")
+        private boolean noAgent;
+
         @Override
         public Integer call() {
             try {
+                configureBuffers(bufferSizeKb, directBuffers);
+                if (recursive && (range != null || resume)) {
+                    System.err.println("Error: --range and --resume cannot be used with -r");
+                    return 1;
+                }
+                if (resume && (range != null || outputPath.equals("-"))) {
+                    System.err.println("Error: --resume cannot be used with --range or when downloading to stdout");
+                    return 1;
+                }
+                ByteRange byteRange = range == null ? null : ByteRange.parse(range);
+                if (outputPath.equals("-")) {
+                    return downloadStdout(byteRange);
+                }
+
+                JsonObject request = AgentClient.request("download");
+                request.addProperty("file", vaultFile);
+                request.addProperty("output", Paths.get(outputPath).toAbsolutePath().toString());
+                request.addProperty("recursive", recursive);
+                request.addProperty("parallel", parallelism);
+                request.addProperty("resume", resume);
+                if (byteRange != null) {
+                    request.addProperty("range", byteRange.toString());
+                }
+                request.addProperty("maxInFlight", maxInFlightMb * 1024 * 1024);
+                Integer agentExit = viaAgent(noAgent, vaultPath, request);
+                if (agentExit != null) {
+                    if (agentExit == 0) {
+                        System.out.println((recursive ? "Directory" : "File") + " downloaded to: " + outputPath);
+                    }
+                    return agentExit;
+                }
+
                 String password = readPassword("Enter vault password: ");
                 
                 VaultOperations ops = new VaultOperations();
-                ops.downloadFile(vaultPath, password, vaultFile, outputPath);
-                System.out.println("File downloaded to: " + outputPath);
+                if (recursive) {
+                    ops.downloadDirectory(vaultPath, password, vaultFile, outputPath, parallelism, maxInFlightMb * 1024 * 1024);
+                    System.out.println("Directory downloaded to: " + outputPath);
+                } else {
+                    ops.downloadFile(vaultPath, password, vaultFile, outputPath, byteRange, parallelism, resume);
+                    System.out.println("File downloaded to: " + outputPath);
+                }
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        private int downloadStdout(ByteRange byteRange) throws Exception {
+            if (recursive) {
+                System.err.println("Error: -r cannot be used when downloading to stdout");
+                return 1;
+            }
+            FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+
+            JsonObject request = AgentClient.request("download");
+            request.addProperty("file", vaultFile);
+            request.addProperty("stdout", true);
+            if (byteRange != null) {
+                request.addProperty("range", byteRange.toString());
+            }
+            Integer agentExit = noAgent ? null : AgentClient.receive(vaultPath, request, out);
+            if (agentExit != null) {
+                return agentExit;
+            }
+
+            String password = readPassword("Enter vault password: ", System.err);
+            new VaultOperations(System.err).downloadStream(vaultPath, password, vaultFile, out, byteRange);
+            return 0;
+        }
+    }
+
+    @Command(name = "copy", description = "Copy files from one vault into another without writing cleartext to disk")
+    static class CopyCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the source vault")
+        private String sourceVault;
+
+        @Parameters(index = "1", description = "Path to the destination vault")
+        private String targetVault;
+
+        @Parameters(index = "2", description = "File or directory inside the source vault (default: /)", defaultValue = "/")
+        private String sourcePath;
+
+        @Option(names = {"-d", "--dest"}, description = "Target path in the destination vault (default: same as the source path)")
+        private String targetPath;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of concurrent file copies (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Option(names = "--max-in-flight", description = "Memory for data in flight, in MB (default: 64)", defaultValue = "64")
+        private long maxInFlightMb;
+
+        @Override
+        public Integer call() {
+            try {
+                String sourcePassword = readPassword("Enter source vault password: ");
+                String targetPassword = readPassword("Enter destination vault password: ");
+
+                VaultOperations ops = new VaultOperations();
+                ops.copyBetweenVaults(sourceVault, sourcePassword, targetVault, targetPassword,
+                        sourcePath, targetPath != null ? targetPath : sourcePath, parallelism, maxInFlightMb * 1024 * 1024);
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "export", description = "Write a vault directory or file to a tar archive")
+    static class ExportCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Parameters(index = "1", description = "Directory or file inside vault (default: /)", defaultValue = "/")
+        private String innerPath;
+
+        @Option(names = {"-o", "--output"}, description = "Archive file, or - for stdout", required = true)
+        private String outputPath;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of files decrypted ahead of the archive writer (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Override
+        public Integer call() {
+            try {
+                boolean stdout = outputPath.equals("-");
+                String password = stdout ? readPassword("Enter vault password: ", System.err) : readPassword("Enter vault password: ");
+
+                VaultOperations ops = stdout ? new VaultOperations(System.err) : new VaultOperations();
+                try (OutputStream out = new BufferedOutputStream(stdout ? new FileOutputStream(FileDescriptor.out)
+                        : new FileOutputStream(outputPath), TarWriter.BLOCK_SIZE * 128)) {
+                    ops.exportTar(vaultPath, password, innerPath, out, parallelism);
+                }
+                if (!stdout) {
+                    System.out.println("Exported to: " + outputPath);
+                }
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "import", description = "Unpack a tar archive into a vault directory")
+    static class ImportCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Parameters(index = "1", description = "Destination directory inside vault")
+        private String destPath;
+
+        @Parameters(index = "2", description = "Archive file, or - for stdin")
+        private String archive;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of concurrent file writes (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Override
+        public Integer call() {
+            try {
+                boolean stdin = archive.equals("-");
+                if (!stdin && !Files.isRegularFile(Paths.get(archive))) {
+                    System.err.println("Error: Archive does not exist: " + archive);
+                    return 1;
+                }
+                String password = stdin ? readPasswordFromTerminal("Enter vault password: ") : readPassword("Enter vault password: ");
+
+                VaultOperations ops = new VaultOperations();
+                try (InputStream in = new BufferedInputStream(stdin ? new FileInputStream(FileDescriptor.in)
+                        : new FileInputStream(archive), TarWriter.BLOCK_SIZE * 128)) {
+                    ops.importTar(vaultPath, password, in, destPath, parallelism);
+                }
+                System.out.println("Imported into: " + destPath);
                 return 0;
             } catch (Exception e) {
                 System.err.println("Error: " + e.getMessage());
@@ -187,9 +629,22 @@ public class CryptomatorCLI implements Callable<Integer> {
         @Parameters(index = "1", description = "Directory path to create inside vault")
         private String dirPath;
 
+        @Option(names = "--no-agent", description = "Unlock the vault even if an agent is running")
+        private boolean noAgent;
+
         @Override
         public Integer call() {
             try {
+                JsonObject request = AgentClient.request("mkdir");
+                request.addProperty("path", dirPath);
+                Integer agentExit = viaAgent(noAgent, vaultPath, request);
+                if (agentExit != null) {
+                    if (agentExit == 0) {
+                        System.out.println("Directory created: " + dirPath);
+                    }
+                    return agentExit;
+                }
+
                 String password = readPassword("Enter vault password: ");
                 
                 VaultOperations ops = new VaultOperations();
@@ -214,13 +669,31 @@ public class CryptomatorCLI implements Callable<Integer> {
         @Option(names = {"-r", "--recursive"}, description = "Delete directories recursively")
         private boolean recursive;
 
+        @Option(names = {"-j", "--parallel"}, description = "Number of threads for recursive deletes (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Option(names = "--no-agent", description = "Unlock the vault even if an agent is running")
+        private boolean noAgent;
+
         @Override
         public Integer call() {
             try {
+                JsonObject request = AgentClient.request("delete");
+                request.addProperty("path", targetPath);
+                request.addProperty("recursive", recursive);
+                request.addProperty("parallel", parallelism);
+                Integer agentExit = viaAgent(noAgent, vaultPath, request);
+                if (agentExit != null) {
+                    if (agentExit == 0) {
+                        System.out.println("Deleted: " + targetPath);
+                    }
+                    return agentExit;
+                }
+
                 String password = readPassword("Enter vault password: ");
                 
                 VaultOperations ops = new VaultOperations();
-                ops.deleteFile(vaultPath, password, targetPath, recursive);
+                ops.deleteFile(vaultPath, password, targetPath, recursive, parallelism);
                 System.out.println("Deleted: " + targetPath);
                 return 0;
             } catch (Exception e) {
@@ -235,11 +708,20 @@ public class CryptomatorCLI implements Callable<Integer> {
         @Parameters(index = "0", description = "Path to the vault")
         private String vaultPath;
 
+        @Option(names = "--deep", description = "Also scan the encrypted directory tree (no password needed): node counts, fan-out, conflicts and orphans")
+        private boolean deep;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of concurrent directory listings with --deep (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
         @Override
         public Integer call() {
             try {
                 VaultOperations ops = new VaultOperations();
                 ops.showVaultInfo(vaultPath);
+                if (deep) {
+                    ops.scanCiphertextTree(vaultPath, parallelism);
+                }
                 return 0;
             } catch (Exception e) {
                 System.err.println("Error: " + e.getMessage());
@@ -253,6 +735,9 @@ public class CryptomatorCLI implements Callable<Integer> {
         @Parameters(index = "0", description = "Path to the vault")
         private String vaultPath;
 
+        @Option(names = "--kdf-target-ms", description = "Pick the strongest scrypt cost whose key derivation takes at most this long on this host (default: fixed cost 32768)")
+        private Long kdfTargetMillis;
+
         @Override
         public Integer call() {
             try {
@@ -271,7 +756,11 @@ public class CryptomatorCLI implements Callable<Integer> {
                 }
 
                 VaultOperations ops = new VaultOperations();
-                ops.changePassword(vaultPath, oldPassword, newPassword);
+                if (kdfTargetMillis != null) {
+                    ops.changePassword(vaultPath, oldPassword, newPassword, ops.calibrateKdf(kdfTargetMillis));
+                } else {
+                    ops.changePassword(vaultPath, oldPassword, newPassword);
+                }
                 System.out.println("Password changed successfully!");
                 return 0;
             } catch (Exception e) {
@@ -280,4 +769,406 @@ public class CryptomatorCLI implements Callable<Integer> {
             }
         }
     }
+
+    @Command(name = "kdf-benchmark", description = "Measure scrypt key derivation time and memory on this host")
+    static class KdfBenchmarkCommand implements Callable<Integer> {
+        @Option(names = "--min-cost", description = "Smallest scrypt cost (N) to measure (default: 16384)", defaultValue = "16384")
+        private int minCost;
+
+        @Option(names = "--max-cost", description = "Largest scrypt cost (N) to measure (default: 1048576)", defaultValue = "1048576")
+        private int maxCost;
+
+        @Option(names = {"-n", "--runs"}, description = "Key derivations per cost, the median is reported (default: 3)", defaultValue = "3")
+        private int runs;
+
+        @Override
+        public Integer call() {
+            try {
+                VaultOperations ops = new VaultOperations();
+                ops.kdfBenchmark(minCost, maxCost, runs);
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "agent", description = "Keep a vault unlocked in a background agent for other commands to use")
+    static class AgentCommand implements Callable<Integer> {
+        private static final long STARTUP_TIMEOUT_MILLIS = 120_000;
+
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Option(names = {"-t", "--idle-timeout"}, description = "Lock the vault after this many idle minutes (default: 15)", defaultValue = "15")
+        private long idleMinutes;
+
+        @Option(names = "--foreground", description = "Run the agent in the foreground instead of detaching")
+        private boolean foreground;
+
+        @Option(names = "--status", description = "Show whether an agent is running for the vault")
+        private boolean status;
+
+        @Option(names = "--stop", description = "Stop the running agent and lock the vault")
+        private boolean stop;
+
+        @Override
+        public Integer call() {
+            try {
+                if (status || stop) {
+                    Integer exit = AgentClient.execute(vaultPath, AgentClient.request(stop ? "stop" : "status"));
+                    if (exit == null) {
+                        System.err.println("Error: No agent running for " + vaultPath);
+                        return 1;
+                    }
+                    return exit;
+                }
+
+                if (AgentClient.isRunning(vaultPath)) {
+                    System.err.println("Error: An agent is already running for " + vaultPath);
+                    return 1;
+                }
+
+                String password = readPassword("Enter vault password: ");
+
+                if (foreground) {
+                    VaultOperations ops = new VaultOperations();
+                    CryptoFileSystem fs = ops.openVault(vaultPath, password);
+                    new VaultAgent(vaultPath, fs, Duration.ofMinutes(idleMinutes)).run();
+                    return 0;
+                }
+                return detach(password);
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        private int detach(String password) throws Exception {
+            List<String> command = new ArrayList<>();
+            if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+                // a native image is its own launcher and has no class path
+                command.add(ProcessHandle.current().info().command().orElse("cryptomator-cli"));
+            } else {
+                String java = ProcessHandle.current().info().command().orElse("java");
+                command.addAll(List.of(java, "-cp", System.getProperty("java.class.path"),
+                        CryptomatorCLI.class.getName()));
+            }
+            // the limits apply to the agent's transfers, so they have to reach the detached process
+            if (Throttle.READ.rate() > 0) {
+                command.addAll(List.of("--max-read-rate", String.valueOf(Throttle.READ.rate())));
+            }
+            if (Throttle.WRITE.rate() > 0) {
+                command.addAll(List.of("--max-write-rate", String.valueOf(Throttle.WRITE.rate())));
+            }
+            if (BufferPool.memoryLimit() > 0) {
+                command.addAll(List.of("--max-memory", String.valueOf(BufferPool.memoryLimit())));
+            }
+            command.addAll(List.of("agent", Paths.get(vaultPath).toAbsolutePath().toString(),
+                    "--foreground", "--idle-timeout", String.valueOf(idleMinutes)));
+            Path log = AgentClient.logPath(vaultPath);
+
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(log.toFile())
+                    .start();
+            try (Writer writer = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write(password);
+                writer.write('\n');
+            }
+
+            long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+            while (!AgentClient.isRunning(vaultPath)) {
+                if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+                    process.destroy();
+                    System.err.println("Error: Agent failed to start, see " + log);
+                    return 1;
+                }
+                Thread.sleep(200);
+            }
+            System.out.println("Agent started (pid " + process.pid() + "), vault stays unlocked until "
+                    + idleMinutes + " idle minutes or 'agent --stop'");
+            return 0;
+        }
+    }
+
+    @Command(name = "serve", description = "Serve the vault read-only over HTTP on localhost")
+    static class ServeCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Option(names = {"-p", "--port"}, description = "Port on 127.0.0.1 to listen on, 0 for any free port (default: 8080)", defaultValue = "8080")
+        private int port;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of request threads when virtual threads are unavailable (default: 64)", defaultValue = "64")
+        private int parallelism;
+
+        @Option(names = "--token", description = "Require a random per-session token as the first path segment of every URL")
+        private boolean token;
+
+        @Override
+        public Integer call() {
+            try {
+                String password = readPassword("Enter vault password: ");
+
+                VaultOperations ops = new VaultOperations();
+                CryptoFileSystem fs = ops.openVault(vaultPath, password);
+                new VaultHttpServer(fs, port, parallelism, token ? VaultHttpServer.newToken() : null).run();
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "batch", description = "Run shell commands from a file or stdin under a single unlock, reporting JSON lines")
+    static class BatchCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Option(names = {"-f", "--file"}, description = "File with one command per line (default: stdin)")
+        private String scriptFile;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of independent commands to run concurrently (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Override
+        public Integer call() {
+            try {
+                String password = readPassword("Enter vault password: ");
+
+                VaultOperations ops = new VaultOperations();
+                int failures;
+                if (scriptFile != null) {
+                    try (BufferedReader input = Files.newBufferedReader(Paths.get(scriptFile))) {
+                        failures = ops.runBatch(vaultPath, password, input, parallelism);
+                    }
+                } else {
+                    failures = ops.runBatch(vaultPath, password, stdin(), parallelism);
+                }
+                return failures == 0 ? 0 : 1;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "sync", description = "Upload new and changed files of a local directory into a vault directory")
+    static class SyncCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Parameters(index = "1", description = "Local directory to sync from")
+        private String localDir;
+
+        @Parameters(index = "2", description = "Directory inside vault to sync into")
+        private String vaultDir;
+
+        @Option(names = "--delete", description = "Delete files from the vault that were removed locally since the last sync")
+        private boolean delete;
+
+        @Option(names = {"-c", "--checksum"}, description = "Detect changes by content hash instead of size and modification time")
+        private boolean checksum;
+
+        @Option(names = {"-n", "--dry-run"}, description = "Only show what would be changed")
+        private boolean dryRun;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of concurrent uploads (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Override
+        public Integer call() {
+            try {
+                VaultOperations ops = new VaultOperations();
+                VaultSync sync = ops.planSync(vaultPath, localDir, vaultDir, checksum, delete, parallelism);
+
+                if (dryRun) {
+                    sync.printPlan(System.out);
+                    return 0;
+                }
+                if (sync.isUpToDate()) {
+                    System.out.println("Already in sync.");
+                    return 0;
+                }
+
+                String password = readPassword("Enter vault password: ");
+                ops.applySync(vaultPath, password, sync, vaultDir, parallelism);
+                System.out.println("Sync complete.");
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "watch", description = "Mirror a local directory into the vault continuously as it changes")
+    static class WatchCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Parameters(index = "1", description = "Local directory to watch")
+        private String localDir;
+
+        @Parameters(index = "2", description = "Directory inside vault to mirror into")
+        private String vaultDir;
+
+        @Option(names = "--delete", description = "Delete files from the vault that are removed locally, and move renamed files instead of uploading them again")
+        private boolean delete;
+
+        @Option(names = "--debounce", description = "Wait until there were no changes for this many milliseconds before applying them (default: 500)", defaultValue = "500")
+        private long debounceMillis;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of concurrent uploads (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Override
+        public Integer call() {
+            try {
+                String password = readPassword("Enter vault password: ");
+
+                VaultOperations ops = new VaultOperations();
+                ops.watch(vaultPath, password, localDir, vaultDir, delete, parallelism, debounceMillis);
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "find", description = "Search a vault directory tree, printing matches as they are found")
+    static class FindCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Parameters(index = "1", description = "Directory inside vault to search (default: /)", defaultValue = "/")
+        private String innerPath;
+
+        @Option(names = "--name", description = "File name glob, e.g. '*.pdf'")
+        private String name;
+
+        @Option(names = "--size", description = "Size filter: >N, <N or N with optional K/M/G suffix")
+        private String size;
+
+        @Option(names = "--newer", description = "Only entries modified after this date (yyyy-MM-dd or yyyy-MM-ddTHH:mm)")
+        private String newer;
+
+        @Option(names = "--type", description = "f for files, d for directories")
+        private String type;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of walker threads (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Override
+        public Integer call() {
+            try {
+                FindCriteria criteria = new FindCriteria().name(name).size(size).newer(newer).type(type);
+                String password = readPassword("Enter vault password: ", System.err);
+
+                VaultOperations ops = new VaultOperations();
+                ops.find(vaultPath, password, innerPath, criteria, parallelism);
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "verify", description = "Decrypt and authenticate every file and name in a vault directory")
+    static class VerifyCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Parameters(index = "1", description = "Directory or file inside vault (default: /)", defaultValue = "/")
+        private String innerPath;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of verifying threads (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Override
+        public Integer call() {
+            try {
+                String password = readPassword("Enter vault password: ");
+
+                VaultOperations ops = new VaultOperations();
+                ops.verify(vaultPath, password, innerPath, parallelism);
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "du", description = "Show the cleartext size of a vault directory tree")
+    static class DuCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Parameters(index = "1", description = "Directory inside vault (default: /)", defaultValue = "/")
+        private String innerPath;
+
+        @Option(names = {"-d", "--depth"}, description = "Also show directories up to this many levels below the path (default: 0)", defaultValue = "0")
+        private int depth;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of walker threads (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Override
+        public Integer call() {
+            try {
+                String password = readPassword("Enter vault password: ", System.err);
+
+                VaultOperations ops = new VaultOperations();
+                ops.diskUsage(vaultPath, password, innerPath, depth, parallelism);
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "index", description = "Build, inspect or delete the local encrypted path index of a vault")
+    static class IndexCommand implements Callable<Integer> {
+        @Parameters(index = "0", description = "Path to the vault")
+        private String vaultPath;
+
+        @Option(names = "--status", description = "Show whether an index exists and how large it is")
+        private boolean status;
+
+        @Option(names = "--drop", description = "Delete the index; listings go back to reading the vault")
+        private boolean drop;
+
+        @Option(names = {"-j", "--parallel"}, description = "Number of walker threads for building (default: number of CPUs)")
+        private int parallelism = Workers.defaultParallelism();
+
+        @Override
+        public Integer call() {
+            try {
+                if (status && drop) {
+                    throw new IllegalArgumentException("--status and --drop cannot be combined");
+                }
+                String password = readPassword("Enter vault password: ");
+
+                VaultOperations ops = new VaultOperations();
+                if (status) {
+                    ops.showIndex(vaultPath, password);
+                } else if (drop) {
+                    ops.dropIndex(vaultPath, password);
+                } else {
+                    ops.buildIndex(vaultPath, password, parallelism);
+                }
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+    }
 }
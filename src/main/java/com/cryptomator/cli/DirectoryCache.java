@@ -0,0 +1,31 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers vault directories that are known to exist, so bulk writes only create each directory once.
+ */
+class DirectoryCache {
+
+    private final Set<Path> known = ConcurrentHashMap.newKeySet();
+
+    void ensure(Path dir) throws IOException {
+        if (dir == null || known.contains(dir)) {
+            return;
+        }
+        long start = Stats.start();
+        Files.createDirectories(dir);
+        Stats.operation("mkdir", start, 0);
+        for (Path p = dir; p != null && known.add(p); p = p.getParent()) {
+            // parents exist as well once createDirectories returned
+        }
+    }
+
+    void forget(Path dir) {
+        known.removeIf(p -> p.startsWith(dir));
+    }
+}
@@ -0,0 +1,140 @@
+package com.cryptomator.cli;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Filter for {@code find}: name glob, size bounds, modification time and entry type.
+ */
+class FindCriteria {
+
+    private PathMatcher name;
+    // -1 and Long.MAX_VALUE mean no bound; a bound also excludes directories
+    private long minSize = -1;
+    private long maxSize = Long.MAX_VALUE;
+    private Instant newer;
+    private Character type;
+
+    FindCriteria name(String glob) {
+        this.name = glob == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        return this;
+    }
+
+    /**
+     * @param expr {@code >N}, {@code <N} or {@code N} with an optional K, M or G suffix; {@code +N}/{@code -N} work like {@code >N}/{@code <N}
+     */
+    FindCriteria size(String expr) {
+        if (expr == null) {
+            return this;
+        }
+        if (expr.isEmpty()) {
+            throw new IllegalArgumentException("Invalid size: " + expr);
+        }
+        char op = expr.charAt(0);
+        if (op == '>' || op == '+') {
+            long size = Sizes.parse(expr.substring(1));
+            if (size == Long.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid size: " + expr);
+            }
+            minSize = size + 1;
+        } else if (op == '<' || op == '-') {
+            // <0 matches nothing
+            maxSize = Sizes.parse(expr.substring(1)) - 1;
+        } else {
+            minSize = maxSize = Sizes.parse(expr);
+        }
+        return this;
+    }
+
+    /**
+     * @param date {@code yyyy-MM-dd} or {@code yyyy-MM-ddTHH:mm[:ss]} in local time
+     */
+    FindCriteria newer(String date) {
+        if (date == null) {
+            return this;
+        }
+        try {
+            this.newer = date.contains("T")
+                    ? LocalDateTime.parse(date).atZone(ZoneId.systemDefault()).toInstant()
+                    : LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault()).toInstant();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + date + " (expected yyyy-MM-dd or yyyy-MM-ddTHH:mm)");
+        }
+        return this;
+    }
+
+    /**
+     * @param type {@code f} for files or {@code d} for directories
+     */
+    FindCriteria type(String type) {
+        if (type == null) {
+            return this;
+        }
+        if (!type.equals("f") && !type.equals("d")) {
+            throw new IllegalArgumentException("Invalid type: " + type + " (expected f or d)");
+        }
+        this.type = type.charAt(0);
+        return this;
+    }
+
+    /**
+     * Parses shell-style arguments: {@code [path] [--name glob] [--size N] [--newer date] [--type f|d]}.
+     *
+     * @return the path argument, or {@code null} if none was given
+     */
+    String parse(String[] args) {
+        String path = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                path = arg;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--name":
+                    name(value);
+                    break;
+                case "--size":
+                    size(value);
+                    break;
+                case "--newer":
+                    newer(value);
+                    break;
+                case "--type":
+                    type(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return path;
+    }
+
+    boolean matches(Path path, BasicFileAttributes attrs) {
+        if (type != null && (type == 'd') != attrs.isDirectory()) {
+            return false;
+        }
+        if (name != null && (path.getFileName() == null || !name.matches(Paths.get(path.getFileName().toString())))) {
+            return false;
+        }
+        if (minSize >= 0 && (attrs.isDirectory() || attrs.size() < minSize)) {
+            return false;
+        }
+        if (maxSize != Long.MAX_VALUE && (attrs.isDirectory() || attrs.size() > maxSize)) {
+            return false;
+        }
+        return newer == null || attrs.lastModifiedTime().toInstant().isAfter(newer);
+    }
+}
@@ -0,0 +1,165 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.function.Predicate;
+
+/**
+ * Bounded LRU cache of decrypted attributes and directory listings for the interactive shell.
+ * <p>
+ * The shell invalidates entries for its own writes; changes made by other processes only become visible
+ * after eviction or an explicit {@link #clear()}. Misses are answered from the {@link PathIndex} if one
+ * has been built for the vault.
+ */
+class MetadataCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final int maxEntries;
+    private final Map<String, Optional<BasicFileAttributes>> attributes;
+    // bounded by the total number of entries, so a few huge directories cannot exceed the limit
+    private final Map<String, List<Entry>> listings = new LinkedHashMap<>(16, 0.75f, true);
+    private long listedEntries;
+
+    MetadataCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.attributes = lruMap(this.maxEntries);
+    }
+
+    private static <V> Map<String, V> lruMap(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the attributes of {@code path}, or {@code null} if it does not exist
+     */
+    synchronized BasicFileAttributes attributes(Path path) throws IOException {
+        String key = path.toString();
+        Optional<BasicFileAttributes> cached = attributes.get(key);
+        if (cached == null) {
+            PathIndex index = PathIndex.enabled(path.getFileSystem());
+            BasicFileAttributes indexed = index == null ? null : index.get(key);
+            if (indexed != null) {
+                cached = Optional.of(indexed);
+            } else {
+                // a stale index may lack paths created by other clients
+                try {
+                    cached = Optional.of(Files.readAttributes(path, BasicFileAttributes.class));
+                } catch (NoSuchFileException e) {
+                    cached = Optional.empty();
+                }
+            }
+            attributes.put(key, cached);
+        }
+        return cached.orElse(null);
+    }
+
+    /**
+     * Lists {@code dir}, reading each entry's attributes once and caching them along with the listing.
+     */
+    synchronized List<Entry> list(Path dir) throws IOException {
+        String key = dir.toString();
+        List<Entry> cached = listings.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        List<Entry> entries = new ArrayList<>();
+        PathIndex index = PathIndex.enabled(dir.getFileSystem());
+        SortedMap<String, PathIndex.Entry> indexed = index == null ? null : index.list(key);
+        if (indexed != null) {
+            for (Map.Entry<String, PathIndex.Entry> entry : indexed.entrySet()) {
+                entries.add(new Entry(entry.getKey(), entry.getValue()));
+                attributes.put(dir.resolve(entry.getKey()).toString(), Optional.of(entry.getValue()));
+            }
+        } else {
+            long start = Stats.start();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    entries.add(new Entry(entry.getFileName().toString(), attrs));
+                    attributes.put(entry.toString(), Optional.of(attrs));
+                }
+            }
+            Stats.listed(start);
+        }
+        entries = Collections.unmodifiableList(entries);
+        putListing(key, entries);
+        return entries;
+    }
+
+    private void putListing(String key, List<Entry> entries) {
+        removeListings(key::equals);
+        if (entries.size() > maxEntries) {
+            return;
+        }
+        listings.put(key, entries);
+        listedEntries += entries.size();
+        for (Iterator<List<Entry>> eldest = listings.values().iterator(); listedEntries > maxEntries; ) {
+            listedEntries -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    private void removeListings(Predicate<String> keys) {
+        listings.entrySet().removeIf(e -> {
+            if (keys.test(e.getKey())) {
+                listedEntries -= e.getValue().size();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Forgets {@code path}, everything below it and the listing of its parent. Writes such as
+     * {@code createDirectories} may have created missing ancestors too, so ancestors are forgotten along with
+     * their parent's listing up to the nearest one known to have existed before.
+     */
+    synchronized void invalidate(Path path) {
+        String key = path.toString();
+        String prefix = key.endsWith("/") ? key : key + "/";
+        attributes.keySet().removeIf(k -> k.equals(key) || k.startsWith(prefix));
+        removeListings(k -> k.equals(key) || k.startsWith(prefix));
+        for (Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+            removeListings(parent.toString()::equals);
+            Optional<BasicFileAttributes> cached = attributes.get(parent.toString());
+            if (cached != null && cached.isPresent()) {
+                break;
+            }
+            attributes.remove(parent.toString());
+        }
+    }
+
+    synchronized void clear() {
+        attributes.clear();
+        listings.clear();
+        listedEntries = 0;
+    }
+
+    static final class Entry {
+        final String name;
+        final BasicFileAttributes attrs;
+
+        Entry(String name, BasicFileAttributes attrs) {
+            this.name = name;
+            this.attrs = attrs;
+        }
+    }
+}
@@ -0,0 +1,824 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+import org.cryptomator.cryptolib.api.Masterkey;
+import org.cryptomator.cryptolib.common.DestroyableSecretKey;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Opt-in local index of a vault's cleartext paths, sizes and modification times, so listings and
+ * searches can be answered without decrypting every directory.
+ * <p>
+ * The index lives in {@code ~/.cryptomator-cli/index/} as an encrypted snapshot plus an append-only
+ * journal. Write operations of this CLI only append to the journal, which is replayed when the index
+ * is queried and folded into a new snapshot once it grows large. Both files are encrypted with
+ * AES-GCM under a key derived from the vault's masterkey, and tied together by a random generation
+ * number that changes on every rebuild. Changes made by other Cryptomator clients are not seen until
+ * the index is rebuilt.
+ */
+final class PathIndex {
+
+    private static final Path INDEX_DIR = Paths.get(System.getProperty("user.home"), ".cryptomator-cli", "index");
+    private static final int MAGIC = 0x434d4958; // "CMIX"
+    private static final int VERSION = 1;
+    private static final int FRAME_SIZE = 64 * 1024;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int JOURNAL_HEADER = 8;
+    private static final long COMPACT_THRESHOLD = 8L * 1024 * 1024;
+    private static final int OPS_PER_RECORD = 4096;
+    private static final byte PUT = 'P';
+    private static final byte REMOVE = 'R';
+    private static final String ROOT = "/";
+    private static final SecureRandom CSPRNG = new SecureRandom();
+
+    private static final Map<FileSystem, PathIndex> ATTACHED = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Map<Path, PathIndex> BY_LOCATION = new HashMap<>();
+
+    private final Path snapshot;
+    private final Path journal;
+    private final DestroyableSecretKey key;
+
+    private Map<String, Entry> entries;
+    private Map<String, NavigableSet<String>> children;
+    private long generation;
+    private long builtAt;
+    private long journalOffset;
+
+    private PathIndex(Path snapshot, Path journal, DestroyableSecretKey key) {
+        this.snapshot = snapshot;
+        this.journal = journal;
+        this.key = key;
+    }
+
+    /**
+     * Makes the index of the vault behind {@code fs} available to {@link #of} and {@link #enabled}.
+     * Called once when the vault is unlocked; nothing is read until the index is queried. Indexes of file
+     * systems that were closed without {@link #detach} are detached here.
+     */
+    static void attach(CryptoFileSystem fs, Masterkey masterkey) {
+        String vaultId = AgentClient.vaultId(fs.getPathToVault().toString());
+        Path snapshot = INDEX_DIR.resolve(vaultId + ".index");
+        synchronized (BY_LOCATION) {
+            List<FileSystem> closed = new ArrayList<>();
+            synchronized (ATTACHED) {
+                for (FileSystem attached : ATTACHED.keySet()) {
+                    if (!attached.isOpen()) {
+                        closed.add(attached);
+                    }
+                }
+            }
+            closed.forEach(PathIndex::detach);
+            PathIndex index = BY_LOCATION.computeIfAbsent(snapshot, s -> new PathIndex(s,
+                    INDEX_DIR.resolve(vaultId + ".journal"), deriveKey(masterkey)));
+            ATTACHED.put(fs, index);
+        }
+    }
+
+    /**
+     * Forgets the index of {@code fs}, destroying its key once no other file system uses it.
+     */
+    static void detach(FileSystem fs) {
+        synchronized (BY_LOCATION) {
+            PathIndex index = ATTACHED.remove(fs);
+            if (index != null && !ATTACHED.containsValue(index)) {
+                BY_LOCATION.remove(index.snapshot);
+                index.key.destroy();
+            }
+        }
+    }
+
+    private static DestroyableSecretKey deriveKey(Masterkey masterkey) {
+        byte[] key = null;
+        try (DestroyableSecretKey macKey = masterkey.getMacKey()) {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(macKey);
+            key = mac.doFinal("cryptomator-cli path index".getBytes(StandardCharsets.US_ASCII));
+            return new DestroyableSecretKey(key, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (key != null) {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+    }
+
+    static PathIndex of(FileSystem fs) {
+        PathIndex index = ATTACHED.get(fs);
+        if (index == null) {
+            throw new IllegalStateException("No path index attached to this file system");
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the vault behind {@code fs}, or {@code null} if it has not been built
+     */
+    static PathIndex enabled(FileSystem fs) {
+        PathIndex index = ATTACHED.get(fs);
+        return index != null && index.exists() ? index : null;
+    }
+
+    boolean exists() {
+        return Files.exists(snapshot);
+    }
+
+    /**
+     * Records that {@code path} was written. Its parent is refreshed as well, since its modification time changed.
+     */
+    static void updated(Path path) {
+        PathIndex index = enabled(path.getFileSystem());
+        if (index == null) {
+            return;
+        }
+        try {
+            Journal ops = new Journal();
+            ops.put(path);
+            if (path.getParent() != null) {
+                ops.put(path.getParent());
+            }
+            index.append(ops);
+        } catch (IOException e) {
+            warn(e);
+        }
+    }
+
+    /**
+     * Records that {@code dir} and possibly some of its ancestors were created.
+     */
+    static void created(Path dir) {
+        PathIndex index = enabled(dir.getFileSystem());
+        if (index == null) {
+            return;
+        }
+        try {
+            Journal ops = new Journal();
+            for (Path p = dir; p != null && p.getParent() != null; p = p.getParent()) {
+                ops.put(p);
+            }
+            index.append(ops);
+        } catch (IOException e) {
+            warn(e);
+        }
+    }
+
+    /**
+     * Records that {@code path} and everything below it was deleted.
+     */
+    static void removed(Path path) {
+        PathIndex index = enabled(path.getFileSystem());
+        if (index == null) {
+            return;
+        }
+        try {
+            Journal ops = new Journal();
+            ops.remove(path.toString());
+            if (path.getParent() != null && Files.exists(path.getParent())) {
+                ops.put(path.getParent());
+            }
+            index.append(ops);
+        } catch (IOException e) {
+            warn(e);
+        }
+    }
+
+    /**
+     * Re-reads the subtree at {@code root} from the vault, e.g. after a recursive upload or a partially
+     * failed delete.
+     */
+    static void refreshed(Path root, int parallelism) {
+        PathIndex index = enabled(root.getFileSystem());
+        if (index == null) {
+            return;
+        }
+        try {
+            index.append(scan(root, parallelism, true));
+        } catch (IOException e) {
+            warn(e);
+        }
+    }
+
+    private static void warn(IOException e) {
+        System.err.println("Warning: path index not updated (" + e.getMessage() + "), run 'index' to rebuild it");
+    }
+
+    /**
+     * Walks the whole vault and replaces the index with the result.
+     *
+     * @return number of indexed entries
+     */
+    synchronized int rebuild(CryptoFileSystem fs, int parallelism) throws IOException {
+        Journal scan = scan(fs.getPath(ROOT), parallelism, false);
+        entries = new HashMap<>();
+        children = new HashMap<>();
+        entries.put(ROOT, new Entry(Entry.DIRECTORY, 0));
+        scan.applyTo(this);
+        builtAt = System.currentTimeMillis();
+        createIndexDirectory();
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            channel.lock(); // released when the channel is closed
+            writeSnapshot(channel);
+        }
+        return entries.size() - 1;
+    }
+
+    /**
+     * Deletes the index; the CLI's operations stop maintaining it until it is built again.
+     */
+    synchronized void drop() throws IOException {
+        Files.deleteIfExists(snapshot);
+        Files.deleteIfExists(journal);
+        entries = null;
+        children = null;
+    }
+
+    private static Journal scan(Path root, int parallelism, boolean replaceRoot) throws IOException {
+        Journal ops = new Journal();
+        String rootPath = root.toString();
+        if (replaceRoot) {
+            ops.remove(rootPath);
+        }
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+            return ops;
+        }
+        if (!rootPath.equals(ROOT)) {
+            ops.put(root);
+        }
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        new VaultWalker(parallelism).walk(root, new VaultWalker.Visitor() {
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                ops.put(file.toString(), Entry.of(attrs));
+            }
+
+            @Override
+            public void visitDirectory(Path dir, BasicFileAttributes attrs) {
+                visitFile(dir, attrs);
+            }
+
+            @Override
+            public void failed(Path path, IOException e) {
+                failures.add(path + ": " + e.getMessage());
+            }
+        });
+        if (!failures.isEmpty()) {
+            throw new IOException(failures.size() + " entries could not be read, first: " + failures.get(0));
+        }
+        return ops;
+    }
+
+    // --- queries ---
+
+    /**
+     * @return the entry at {@code path}, or {@code null} if it is not in the index
+     */
+    synchronized Entry get(String path) throws IOException {
+        refresh();
+        return entries.get(path);
+    }
+
+    /**
+     * @return the names of the entries in {@code dir}, sorted, or {@code null} if {@code dir} is not an indexed directory
+     */
+    synchronized SortedMap<String, Entry> list(String dir) throws IOException {
+        refresh();
+        Entry entry = entries.get(dir);
+        if (entry == null || !entry.isDirectory()) {
+            return null;
+        }
+        SortedMap<String, Entry> result = new TreeMap<>();
+        for (String child : children.getOrDefault(dir, Collections.emptyNavigableSet())) {
+            result.put(name(child), entries.get(child));
+        }
+        return result;
+    }
+
+    interface Visitor {
+        void visit(String path, Entry entry);
+
+        /**
+         * Called after all entries below {@code dir} were visited.
+         */
+        default void directoryDone(String dir, int depth, VaultWalker.Totals totals) {
+        }
+    }
+
+    /**
+     * Visits everything below {@code root} depth-first in name order, like {@link VaultWalker} does on the vault.
+     *
+     * @return totals of the subtree, or {@code null} if {@code root} is not an indexed directory
+     */
+    synchronized VaultWalker.Totals walk(String root, Visitor visitor) throws IOException {
+        refresh();
+        Entry entry = entries.get(root);
+        if (entry == null || !entry.isDirectory()) {
+            return null;
+        }
+        return walk(root, 0, visitor);
+    }
+
+    private VaultWalker.Totals walk(String dir, int depth, Visitor visitor) {
+        VaultWalker.Totals totals = new VaultWalker.Totals();
+        for (String child : children.getOrDefault(dir, Collections.emptyNavigableSet())) {
+            Entry entry = entries.get(child);
+            visitor.visit(child, entry);
+            if (entry.isDirectory()) {
+                totals.directories++;
+                totals.add(walk(child, depth + 1, visitor));
+            } else {
+                totals.files++;
+                totals.bytes += entry.size;
+            }
+        }
+        visitor.directoryDone(dir, depth, totals);
+        return totals;
+    }
+
+    synchronized String describe() throws IOException {
+        refresh();
+        long journalSize = Files.exists(journal) ? Files.size(journal) : 0;
+        return (entries.size() - 1) + " entries, built " + new Date(builtAt) + ", "
+                + VaultOperations.formatSize(Files.size(snapshot)) + " snapshot, "
+                + VaultOperations.formatSize(journalSize) + " journal";
+    }
+
+    // --- in-memory model ---
+
+    private void put(String path, Entry entry) {
+        if (path.equals(ROOT)) {
+            entries.put(ROOT, entry);
+            return;
+        }
+        entries.put(path, entry);
+        String parent = parent(path);
+        children.computeIfAbsent(parent, p -> new TreeSet<>()).add(path);
+        if (!entries.containsKey(parent)) {
+            put(parent, new Entry(Entry.DIRECTORY, 0));
+        }
+    }
+
+    private void remove(String path) {
+        NavigableSet<String> below = children.remove(path);
+        if (below != null) {
+            for (String child : below) {
+                remove(child);
+            }
+        }
+        if (path.equals(ROOT)) {
+            return;
+        }
+        entries.remove(path);
+        NavigableSet<String> siblings = children.get(parent(path));
+        if (siblings != null) {
+            siblings.remove(path);
+        }
+    }
+
+    private static String parent(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? ROOT : path.substring(0, slash);
+    }
+
+    private static String name(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    // --- persistence ---
+
+    /**
+     * Loads the snapshot if needed and replays journal records appended since the last call, possibly by
+     * other processes. Folds the journal into a new snapshot once it exceeds {@link #COMPACT_THRESHOLD}.
+     */
+    private void refresh() throws IOException {
+        if (!exists()) {
+            throw new NoSuchFileException(snapshot.toString(), null, "path index has not been built");
+        }
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            channel.lock();
+            long journalGeneration = readJournalGeneration(channel);
+            if (entries == null || journalGeneration != generation) {
+                readSnapshot();
+                journalOffset = JOURNAL_HEADER;
+                if (journalGeneration != generation) {
+                    throw new IOException("Path index snapshot and journal do not match, run 'index' to rebuild it");
+                }
+            }
+            replayJournal(channel);
+            if (channel.size() > COMPACT_THRESHOLD) {
+                writeSnapshot(channel);
+            }
+        }
+    }
+
+    private synchronized void append(Journal ops) throws IOException {
+        if (ops.isEmpty()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.lock();
+            long journalGeneration = readJournalGeneration(channel);
+            for (byte[] record : ops.records()) {
+                ByteBuffer sealed = ByteBuffer.wrap(seal(record, generationAad(journalGeneration)));
+                ByteBuffer frame = ByteBuffer.allocate(4 + sealed.remaining());
+                frame.putInt(sealed.remaining()).put(sealed).flip();
+                long position = channel.size();
+                while (frame.hasRemaining()) {
+                    position += channel.write(frame, position);
+                }
+            }
+        }
+    }
+
+    private static long readJournalGeneration(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Path index journal is missing, run 'index' to rebuild it");
+            }
+        }
+        return header.flip().getLong();
+    }
+
+    private void replayJournal(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (journalOffset + 4 <= size) {
+            length.clear();
+            channel.read(length, journalOffset);
+            int recordLength = length.flip().getInt();
+            if (recordLength <= 0 || journalOffset + 4 + recordLength > size) {
+                break; // incomplete record of an interrupted write
+            }
+            ByteBuffer record = ByteBuffer.allocate(recordLength);
+            while (record.hasRemaining()) {
+                channel.read(record, journalOffset + 4 + record.position());
+            }
+            byte[] plain = open(record.array(), generationAad(generation));
+            Journal.applyTo(this, new DataInputStream(new ByteArrayInputStream(plain)));
+            journalOffset += 4 + recordLength;
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported path index: " + snapshot);
+            }
+            long snapshotGeneration = in.readLong();
+            DataInputStream body = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(new FrameInputStream(in, snapshotGeneration))));
+            Map<String, Entry> loaded = new HashMap<>();
+            Map<String, NavigableSet<String>> loadedChildren = new HashMap<>();
+            entries = loaded;
+            children = loadedChildren;
+            generation = snapshotGeneration;
+            builtAt = body.readLong();
+            int count = body.readInt();
+            entries.put(ROOT, new Entry(Entry.DIRECTORY, 0));
+            for (int i = 0; i < count; i++) {
+                String path = body.readUTF();
+                put(path, new Entry(body.readLong(), body.readLong()));
+            }
+        } catch (IOException e) {
+            entries = null;
+            children = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the in-memory state as a new snapshot with a fresh generation and resets the journal.
+     * The caller holds the journal lock.
+     */
+    private void writeSnapshot(FileChannel journalChannel) throws IOException {
+        long nextGeneration = CSPRNG.nextLong();
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(nextGeneration);
+            try (DataOutputStream body = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(new FrameOutputStream(out, nextGeneration))))) {
+                body.writeLong(builtAt);
+                body.writeInt(entries.size() - 1);
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    if (e.getKey().equals(ROOT)) {
+                        continue;
+                    }
+                    body.writeUTF(e.getKey());
+                    body.writeLong(e.getValue().size);
+                    body.writeLong(e.getValue().modified);
+                }
+            }
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        journalChannel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER).putLong(nextGeneration).flip();
+        while (header.hasRemaining()) {
+            journalChannel.write(header, header.position());
+        }
+        generation = nextGeneration;
+        journalOffset = JOURNAL_HEADER;
+    }
+
+    private static void createIndexDirectory() throws IOException {
+        if (!Files.isDirectory(INDEX_DIR)) {
+            Files.createDirectories(INDEX_DIR);
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(INDEX_DIR, PosixFilePermissions.fromString("rwx------"));
+            }
+        }
+    }
+
+    // --- encryption ---
+    // Cipher.init may zero the array returned by getEncoded(), which for DestroyableSecretKey is the key itself,
+    // so every init gets a copy.
+
+    private static byte[] generationAad(long generation) {
+        return ByteBuffer.allocate(8).putLong(generation).array();
+    }
+
+    private byte[] seal(byte[] plain, byte[] aad) throws IOException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        CSPRNG.nextBytes(nonce);
+        try (DestroyableSecretKey keyCopy = key.copy()) {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, keyCopy, new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(aad);
+            byte[] sealed = Arrays.copyOf(nonce, NONCE_LENGTH + cipher.getOutputSize(plain.length));
+            cipher.doFinal(plain, 0, plain.length, sealed, NONCE_LENGTH);
+            return sealed;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt path index", e);
+        }
+    }
+
+    private byte[] open(byte[] sealed, byte[] aad) throws IOException {
+        try (DestroyableSecretKey keyCopy = key.copy()) {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, keyCopy, new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_LENGTH));
+            cipher.updateAAD(aad);
+            return cipher.doFinal(sealed, NONCE_LENGTH, sealed.length - NONCE_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Path index is corrupt or belongs to another vault, run 'index' to rebuild it", e);
+        }
+    }
+
+    /**
+     * Splits the snapshot body into separately authenticated frames, so it can be streamed in constant memory.
+     * Each frame's additional data holds the generation, frame number and the last-frame flag, which rules out
+     * reordering and truncation.
+     */
+    private class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final long generation;
+        private final ByteArrayOutputStream frame = new ByteArrayOutputStream(FRAME_SIZE);
+        private long frameNumber;
+
+        FrameOutputStream(DataOutputStream out, long generation) {
+            this.out = out;
+            this.generation = generation;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, FRAME_SIZE - frame.size());
+                frame.write(b, off, n);
+                off += n;
+                len -= n;
+                if (frame.size() == FRAME_SIZE) {
+                    writeFrame(false);
+                }
+            }
+        }
+
+        private void writeFrame(boolean last) throws IOException {
+            byte[] sealed = seal(frame.toByteArray(), frameAad(generation, frameNumber++, last));
+            out.writeBoolean(last);
+            out.writeInt(sealed.length);
+            out.write(sealed);
+            frame.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeFrame(true);
+            out.close();
+        }
+    }
+
+    private class FrameInputStream extends InputStream {
+        private final DataInputStream in;
+        private final long generation;
+        private ByteArrayInputStream frame = new ByteArrayInputStream(new byte[0]);
+        private long frameNumber;
+        private boolean last;
+
+        FrameInputStream(DataInputStream in, long generation) {
+            this.in = in;
+            this.generation = generation;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (frame.available() == 0) {
+                if (last) {
+                    return -1;
+                }
+                byte[] sealed;
+                try {
+                    last = in.readBoolean();
+                    sealed = new byte[in.readInt()];
+                    in.readFully(sealed);
+                } catch (EOFException e) {
+                    throw new IOException("Path index is truncated, run 'index' to rebuild it");
+                }
+                frame = new ByteArrayInputStream(open(sealed, frameAad(generation, frameNumber++, last)));
+            }
+            return frame.read(b, off, len);
+        }
+    }
+
+    private static byte[] frameAad(long generation, long frameNumber, boolean last) {
+        return ByteBuffer.allocate(17).putLong(generation).putLong(frameNumber).put((byte) (last ? 1 : 0)).array();
+    }
+
+    /**
+     * Index operations collected for one or more journal records.
+     */
+    private static final class Journal {
+        private final List<ByteArrayOutputStream> records = new ArrayList<>();
+        private DataOutputStream current;
+        private int count;
+
+        void put(Path path) throws IOException {
+            put(path.toString(), Entry.of(Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)));
+        }
+
+        synchronized void put(String path, Entry entry) {
+            try {
+                next().writeByte(PUT);
+                current.writeUTF(path);
+                current.writeLong(entry.size);
+                current.writeLong(entry.modified);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        synchronized void remove(String path) {
+            try {
+                next().writeByte(REMOVE);
+                current.writeUTF(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private DataOutputStream next() {
+            if (current == null || count++ == OPS_PER_RECORD) {
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                records.add(record);
+                current = new DataOutputStream(record);
+                count = 1;
+            }
+            return current;
+        }
+
+        boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        List<byte[]> records() {
+            List<byte[]> result = new ArrayList<>(records.size());
+            for (ByteArrayOutputStream record : records) {
+                result.add(record.toByteArray());
+            }
+            return result;
+        }
+
+        void applyTo(PathIndex index) throws IOException {
+            for (byte[] record : records()) {
+                applyTo(index, new DataInputStream(new ByteArrayInputStream(record)));
+            }
+        }
+
+        static void applyTo(PathIndex index, DataInputStream in) throws IOException {
+            while (in.available() > 0) {
+                byte op = in.readByte();
+                String path = in.readUTF();
+                if (op == PUT) {
+                    index.put(path, new Entry(in.readLong(), in.readLong()));
+                } else if (op == REMOVE) {
+                    index.remove(path);
+                } else {
+                    throw new IOException("Unknown path index operation: " + op);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexed attributes of one entry, usable wherever the walker's {@link BasicFileAttributes} are.
+     */
+    static final class Entry implements BasicFileAttributes {
+        static final long DIRECTORY = -1;
+
+        final long size;
+        final long modified;
+
+        Entry(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        static Entry of(BasicFileAttributes attrs) {
+            return new Entry(attrs.isDirectory() ? DIRECTORY : attrs.size(), attrs.lastModifiedTime().toMillis());
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(modified);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !isDirectory();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return size == DIRECTORY;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return isDirectory() ? 0 : size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Deletes a directory tree with a fork-join traversal, so the ciphertext lookups and deletes of sibling
+ * entries run in parallel.
+ * <p>
+ * Entries that cannot be deleted are recorded and the traversal continues with the rest of the tree;
+ * their parent directories are kept, since they are not empty.
+ */
+class RecursiveDeleter {
+
+    private final int parallelism;
+    private final Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+    RecursiveDeleter(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return descriptions of the entries that could not be deleted
+     */
+    List<String> delete(Path root, TransferProgress progress) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DeleteTask(root, progress));
+        } finally {
+            pool.shutdown();
+        }
+        return new ArrayList<>(failures);
+    }
+
+    private class DeleteTask extends RecursiveTask<Boolean> {
+        private final Path path;
+        private final TransferProgress progress;
+
+        DeleteTask(Path path, TransferProgress progress) {
+            this.path = path;
+            this.progress = progress;
+        }
+
+        /**
+         * @return whether {@link #path} is gone
+         */
+        @Override
+        protected Boolean compute() {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isDirectory() && !deleteChildren()) {
+                    return false;
+                }
+                long start = Stats.start();
+                Files.delete(path);
+                Stats.operation("delete", start, 0);
+                progress.fileDone(0);
+                return true;
+            } catch (NoSuchFileException e) {
+                return true;
+            } catch (IOException | RuntimeException e) {
+                failures.add(path + ": " + e.getMessage());
+                progress.failed();
+                return false;
+            }
+        }
+
+        private boolean deleteChildren() throws IOException {
+            List<DeleteTask> children = new ArrayList<>();
+            long start = Stats.start();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    children.add(new DeleteTask(entry, progress));
+                }
+            }
+            Stats.listed(start);
+            boolean allDeleted = true;
+            for (DeleteTask child : invokeAll(children)) {
+                allDeleted &= child.join();
+            }
+            return allDeleted;
+        }
+    }
+}
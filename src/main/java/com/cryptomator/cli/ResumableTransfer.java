@@ -0,0 +1,150 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Copies one file into or out of a vault so that an interrupted copy continues where it stopped.
+ * <p>
+ * Every {@link #CHECKPOINT_INTERVAL} bytes the target is forced to disk and the offset is recorded in a
+ * checkpoint file in {@code ~/.cryptomator-cli/transfers/}, together with the source's size and modification
+ * time. The checkpoint is named by a hash of both paths and contains neither. A later copy between the same
+ * paths starts from the checkpointed offset, rounded down to a 32 KiB cleartext chunk, if the source is
+ * unchanged and the last chunk before that offset reads back identically from both files; otherwise it starts
+ * over. The checkpoint is deleted once the copy is complete.
+ */
+class ResumableTransfer {
+
+    static final long CHECKPOINT_INTERVAL = 64L * 1024 * 1024;
+
+    private static final Path TRANSFER_DIR = Paths.get(System.getProperty("user.home"), ".cryptomator-cli", "transfers");
+    private static final int MAGIC = 0x434d5452; // "CMTR"
+    private static final int VERSION = 1;
+
+    private final Path source;
+    private final Path target;
+    private final Path checkpoint;
+
+    ResumableTransfer(Path source, Path target) {
+        this.source = source;
+        this.target = target;
+        this.checkpoint = location(source, target);
+    }
+
+    static Path location(Path source, Path target) {
+        String key = describe(source) + "\0" + describe(target);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return TRANSFER_DIR.resolve(HexFormat.of().formatHex(digest, 0, 16) + ".checkpoint");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String describe(Path path) {
+        if (path.getFileSystem() instanceof CryptoFileSystem) {
+            return ((CryptoFileSystem) path.getFileSystem()).getPathToVault().toAbsolutePath().normalize() + ":" + path.toAbsolutePath().normalize();
+        }
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Copies the source to the target, resuming an earlier interrupted copy if possible.
+     *
+     * @return the offset the copy resumed from, 0 if it started over
+     */
+    long copy() throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        long start = Stats.start();
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            long resumed = resumeOffset(in, out, size, modified);
+            long offset = resumed;
+            out.truncate(offset);
+            while (offset < size) {
+                long length = Math.min(CHECKPOINT_INTERVAL - offset % CHECKPOINT_INTERVAL, size - offset);
+                ChannelCopier.copyRange(in, offset, length, out, offset);
+                offset += length;
+                if (offset < size) {
+                    out.force(true);
+                    save(size, modified, offset);
+                }
+            }
+            out.force(true);
+            Stats.operation(ChannelCopier.direction(source, target), start, size - resumed);
+            Files.deleteIfExists(checkpoint);
+            return resumed;
+        }
+    }
+
+    /**
+     * @return the checkpointed offset if it is still valid for the source and target, otherwise 0
+     */
+    private long resumeOffset(FileChannel in, FileChannel out, long size, long modified) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        long offset;
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION
+                    || data.readLong() != size || data.readLong() != modified) {
+                return 0;
+            }
+            offset = data.readLong();
+        } catch (EOFException e) {
+            return 0;
+        }
+        offset = Math.min(offset, out.size()) / TextViewer.CHUNK_SIZE * TextViewer.CHUNK_SIZE;
+        return offset > 0 && sameChunk(in, out, offset - TextViewer.CHUNK_SIZE) ? offset : 0;
+    }
+
+    private static boolean sameChunk(FileChannel a, FileChannel b, long position) {
+        try {
+            return Arrays.equals(readChunk(a, position), readChunk(b, position));
+        } catch (IOException e) {
+            // e.g. a torn chunk in the vault that fails authentication
+            return false;
+        }
+    }
+
+    private static byte[] readChunk(FileChannel channel, long position) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(TextViewer.CHUNK_SIZE);
+        while (chunk.hasRemaining() && channel.read(chunk, position + chunk.position()) > 0) {
+            // keep reading until the chunk is full or the file ends
+        }
+        return Arrays.copyOf(chunk.array(), chunk.position());
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and moves it into place, so a crash keeps the previous one.
+     */
+    private void save(long size, long modified, long offset) throws IOException {
+        Files.createDirectories(checkpoint.getParent());
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(size);
+            data.writeLong(modified);
+            data.writeLong(offset);
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,87 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptolib.common.Scrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Measures scrypt on the current host, for choosing the cost parameter (N) of the key derivation that
+ * wraps a vault's masterkey.
+ * <p>
+ * scrypt's time and memory both grow linearly with N; memory is exactly {@code 128 * r * N} bytes. The block
+ * size r is fixed at 8 like in {@code MasterkeyFileAccess}, and N must be a power of two.
+ */
+final class ScryptCalibration {
+
+    static final int BLOCK_SIZE = 8;
+    static final int MIN_COST_PARAM = 1 << 14;
+    static final int MAX_COST_PARAM = 1 << 20;
+
+    private static final byte[] PASSPHRASE = "kdf-benchmark".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SALT = new byte[8];
+    private static final int KEY_LENGTH = 32;
+
+    private static boolean warmedUp;
+
+    private ScryptCalibration() {
+    }
+
+    static long memoryBytes(int costParam, int blockSize) {
+        return 128L * blockSize * costParam;
+    }
+
+    /**
+     * @return the median time of {@code runs} key derivations with the given parameters, in milliseconds
+     */
+    static double measure(int costParam, int blockSize, int runs) {
+        warmUp();
+        double[] millis = new double[Math.max(1, runs)];
+        for (int i = 0; i < millis.length; i++) {
+            long start = System.nanoTime();
+            Scrypt.scrypt(PASSPHRASE, SALT, costParam, blockSize, KEY_LENGTH);
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(millis);
+        return millis[millis.length / 2];
+    }
+
+    /**
+     * Predicts the time of one key derivation from a measurement at {@link #MIN_COST_PARAM}, so the estimate
+     * costs a few milliseconds and 16 MB regardless of how expensive the given parameters are.
+     *
+     * @return the estimated time in milliseconds
+     */
+    static double estimate(int costParam, int blockSize) {
+        double millis = measure(MIN_COST_PARAM, BLOCK_SIZE, 3);
+        return millis * ((double) costParam * blockSize) / ((double) MIN_COST_PARAM * BLOCK_SIZE);
+    }
+
+    /**
+     * Finds the largest power-of-two cost whose key derivation takes at most {@code targetMillis}, but never
+     * less than {@link #MIN_COST_PARAM}, nor more than {@link #MAX_COST_PARAM} or a quarter of the maximum heap.
+     */
+    static int calibrate(long targetMillis) {
+        long maxMemory = Runtime.getRuntime().maxMemory() / 4;
+        int cost = MIN_COST_PARAM;
+        double millis = measure(cost, BLOCK_SIZE, 3);
+        while (cost < MAX_COST_PARAM && memoryBytes(cost * 2, BLOCK_SIZE) <= maxMemory
+                && millis * 2 <= targetMillis * 1.25) {
+            // time grows linearly with N, so only measure the next step if it is predicted to fit
+            double next = measure(cost * 2, BLOCK_SIZE, 3);
+            if (next > targetMillis) {
+                break;
+            }
+            cost *= 2;
+            millis = next;
+        }
+        return cost;
+    }
+
+    private static synchronized void warmUp() {
+        if (!warmedUp) {
+            Scrypt.scrypt(PASSPHRASE, SALT, 1 << 10, BLOCK_SIZE, KEY_LENGTH);
+            warmedUp = true;
+        }
+    }
+}
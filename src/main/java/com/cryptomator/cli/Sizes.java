@@ -0,0 +1,48 @@
+package com.cryptomator.cli;
+
+import java.util.Locale;
+
+/**
+ * Byte counts given on the command line, such as {@code 64M}.
+ */
+final class Sizes {
+
+    private Sizes() {
+    }
+
+    /**
+     * @return the number of bytes in {@code value}, a non-negative number with an optional K, M or G suffix
+     */
+    static long parse(String value) {
+        String v = value.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (v.endsWith("K")) {
+            unit = 1024;
+        } else if (v.endsWith("M")) {
+            unit = 1024 * 1024;
+        } else if (v.endsWith("G")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit > 1) {
+            v = v.substring(0, v.length() - 1);
+        }
+        try {
+            long number = Long.parseLong(v);
+            if (number < 0) {
+                throw new IllegalArgumentException("Invalid size: " + value);
+            }
+            return Math.multiplyExact(number, unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid size: " + value);
+        }
+    }
+
+    /**
+     * Parses a rate or memory limit.
+     *
+     * @return the limit in bytes, or 0 for {@code 0} and {@code off}, which mean unlimited
+     */
+    static long parseLimit(String value) {
+        return value.trim().equalsIgnoreCase("off") ? 0 : parse(value);
+    }
+}
@@ -0,0 +1,311 @@
+package com.cryptomator.cli;
+
+import com.google.gson.JsonObject;
+import org.cryptomator.cryptofs.CryptoFileSystem;
+import org.cryptomator.cryptofs.CryptoFileSystemStats;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide instrumentation behind the global {@code --stats} option: time per phase, bytes moved
+ * through the vault, and counts, throughput and latency percentiles per operation type.
+ * <p>
+ * Disabled by default; then {@link #start()} returns 0 and the recording methods return immediately,
+ * so call sites need no checks of their own. Phase times are summed over all threads and can exceed
+ * the wall time of a parallel command.
+ */
+final class Stats {
+
+    enum Format {
+        TEXT, JSON;
+
+        static Format parse(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid stats format: " + value + " (expected text or json)");
+            }
+        }
+    }
+
+    enum Phase {
+        KEY_DERIVATION("key derivation"),
+        OPEN_FILE_SYSTEM("open file system"),
+        DIRECTORY_TRAVERSAL("directory traversal"),
+        THROTTLED("throttled");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static volatile Format format;
+    private static long enabledAt;
+    private static final Map<Phase, LongAdder> PHASES = new EnumMap<>(Phase.class);
+    private static final Map<String, Operation> OPERATIONS = new ConcurrentHashMap<>();
+    private static final List<CryptoFileSystem> FILE_SYSTEMS = new ArrayList<>();
+
+    static {
+        for (Phase phase : Phase.values()) {
+            PHASES.put(phase, new LongAdder());
+        }
+    }
+
+    private Stats() {
+    }
+
+    static void enable(Format format) {
+        Stats.format = format;
+        enabledAt = System.nanoTime();
+    }
+
+    static boolean enabled() {
+        return format != null;
+    }
+
+    /**
+     * @return the start time for {@link #phase} or {@link #operation}, or 0 if stats are disabled
+     */
+    static long start() {
+        return format == null ? 0 : System.nanoTime();
+    }
+
+    static void phase(Phase phase, long start) {
+        if (start != 0) {
+            PHASES.get(phase).add(System.nanoTime() - start);
+        }
+    }
+
+    static void phaseNanos(Phase phase, long nanos) {
+        if (format != null) {
+            PHASES.get(phase).add(nanos);
+        }
+    }
+
+    /**
+     * Records one completed operation, e.g. a file upload, with its payload size.
+     */
+    static void operation(String type, long start, long bytes) {
+        if (start != 0) {
+            long end = System.nanoTime();
+            OPERATIONS.computeIfAbsent(type, t -> new Operation()).record(start, end, bytes);
+        }
+    }
+
+    /**
+     * Records a directory listing, which counts both as an operation and as traversal time.
+     */
+    static void listed(long start) {
+        if (start != 0) {
+            phase(Phase.DIRECTORY_TRAVERSAL, start);
+            operation("list", start, 0);
+        }
+    }
+
+    /**
+     * Registers a vault whose cryptofs counters (cleartext and cipher bytes) are included in the report.
+     */
+    static void attach(CryptoFileSystem fs) {
+        if (format != null) {
+            synchronized (FILE_SYSTEMS) {
+                FILE_SYSTEMS.add(fs);
+            }
+        }
+    }
+
+    /**
+     * Prints the report in the configured format; does nothing if stats are disabled.
+     */
+    static void report(PrintStream out) {
+        if (format == null) {
+            return;
+        }
+        JsonObject report = toJson();
+        if (format == Format.JSON) {
+            out.println(report);
+        } else {
+            printText(report, out);
+        }
+        out.flush();
+    }
+
+    private static JsonObject toJson() {
+        JsonObject phases = new JsonObject();
+        phases.addProperty("total_ms", millis(System.nanoTime() - enabledAt));
+        for (Phase phase : Phase.values()) {
+            phases.addProperty(phase.name().toLowerCase(Locale.ROOT) + "_ms", millis(PHASES.get(phase).sum()));
+        }
+
+        long read = 0, written = 0, decrypted = 0, encrypted = 0;
+        synchronized (FILE_SYSTEMS) {
+            for (CryptoFileSystem fs : FILE_SYSTEMS) {
+                CryptoFileSystemStats stats = fs.getStats();
+                read += stats.pollBytesRead();
+                written += stats.pollBytesWritten();
+                decrypted += stats.pollBytesDecrypted();
+                encrypted += stats.pollBytesEncrypted();
+            }
+        }
+        JsonObject bytes = new JsonObject();
+        bytes.addProperty("cleartext_read", read);
+        bytes.addProperty("cleartext_written", written);
+        bytes.addProperty("decrypted", decrypted);
+        bytes.addProperty("encrypted", encrypted);
+
+        JsonObject operations = new JsonObject();
+        for (Map.Entry<String, Operation> e : new TreeMap<>(OPERATIONS).entrySet()) {
+            operations.add(e.getKey(), e.getValue().toJson());
+        }
+
+        JsonObject report = new JsonObject();
+        report.add("phases", phases);
+        report.add("bytes", bytes);
+        report.add("operations", operations);
+        return report;
+    }
+
+    private static void printText(JsonObject report, PrintStream out) {
+        JsonObject phases = report.getAsJsonObject("phases");
+        out.println();
+        out.println("=== Stats ===");
+        out.printf("%-22s %12.1f ms%n", "total (wall)", phases.get("total_ms").getAsDouble());
+        for (Phase phase : Phase.values()) {
+            out.printf("%-22s %12.1f ms%n", phase.label, phases.get(phase.name().toLowerCase(Locale.ROOT) + "_ms").getAsDouble());
+        }
+
+        JsonObject bytes = report.getAsJsonObject("bytes");
+        out.printf("%-22s read %s, written %s%n", "cleartext",
+                VaultOperations.formatSize(bytes.get("cleartext_read").getAsLong()),
+                VaultOperations.formatSize(bytes.get("cleartext_written").getAsLong()));
+        out.printf("%-22s decrypted %s, encrypted %s%n", "cipher",
+                VaultOperations.formatSize(bytes.get("decrypted").getAsLong()),
+                VaultOperations.formatSize(bytes.get("encrypted").getAsLong()));
+
+        JsonObject operations = report.getAsJsonObject("operations");
+        if (operations.size() == 0) {
+            return;
+        }
+        out.printf("%n%-10s %9s %10s %9s %9s %9s %9s %9s%n", "OPERATION", "COUNT", "OPS/S", "MB/S", "P50 MS", "P90 MS", "P99 MS", "MAX MS");
+        for (String type : operations.keySet()) {
+            JsonObject op = operations.getAsJsonObject(type);
+            out.printf("%-10s %9d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", type,
+                    op.get("count").getAsLong(), op.get("ops_per_sec").getAsDouble(), op.get("mb_per_sec").getAsDouble(),
+                    op.get("p50_ms").getAsDouble(), op.get("p90_ms").getAsDouble(),
+                    op.get("p99_ms").getAsDouble(), op.get("max_ms").getAsDouble());
+        }
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    /**
+     * Counters and latency histogram of one operation type. Rates are computed over the window from the
+     * first operation's start to the last one's end.
+     */
+    private static final class Operation {
+        private final LongAdder bytes = new LongAdder();
+        private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastEnd = new AtomicLong();
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        void record(long start, long end, long size) {
+            bytes.add(size);
+            firstStart.accumulateAndGet(start, Math::min);
+            lastEnd.accumulateAndGet(end, Math::max);
+            latencies.record((end - start) / 1000);
+        }
+
+        JsonObject toJson() {
+            long count = latencies.count();
+            double seconds = Math.max((lastEnd.get() - firstStart.get()) / 1e9, 1e-6);
+            JsonObject json = new JsonObject();
+            json.addProperty("count", count);
+            json.addProperty("bytes", bytes.sum());
+            json.addProperty("ops_per_sec", Math.round(count / seconds * 10) / 10.0);
+            json.addProperty("mb_per_sec", Math.round(bytes.sum() / seconds / (1024 * 1024) * 100) / 100.0);
+            json.addProperty("p50_ms", latencies.percentile(0.50) / 1000.0);
+            json.addProperty("p90_ms", latencies.percentile(0.90) / 1000.0);
+            json.addProperty("p99_ms", latencies.percentile(0.99) / 1000.0);
+            json.addProperty("max_ms", latencies.max() / 1000.0);
+            return json;
+        }
+    }
+
+    /**
+     * Lock-free log-linear histogram of microsecond values: exact below 16, then 8 buckets per power of two,
+     * i.e. at most 12.5% relative error.
+     */
+    private static final class LatencyHistogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int LINEAR = 16;
+
+        private final AtomicLongArray counts = new AtomicLongArray(LINEAR + (64 - 4) * SUB_BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            long value = Math.max(0, micros);
+            counts.incrementAndGet(index(value));
+            total.increment();
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        private static int index(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * @return the upper bound of the bucket at {@code index}
+         */
+        private static long upperBound(int index) {
+            if (index < LINEAR) {
+                return index;
+            }
+            int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+            int sub = (index - LINEAR) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long percentile(double quantile) {
+            long count = total.sum();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+}
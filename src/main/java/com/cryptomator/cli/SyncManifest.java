@@ -0,0 +1,133 @@
+package com.cryptomator.cli;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Local record of what the last {@code sync} run uploaded: one entry per file or directory with size,
+ * modification time and, in checksum mode, a SHA-256 content hash.
+ * <p>
+ * Stored as a compact binary file in {@code ~/.cryptomator-cli/sync/}, keyed by vault, vault directory
+ * and local directory, so that unchanged files can be detected without touching the vault.
+ */
+class SyncManifest {
+
+    private static final Path SYNC_DIR = Paths.get(System.getProperty("user.home"), ".cryptomator-cli", "sync");
+    private static final int MAGIC = 0x434d5359; // "CMSY"
+    private static final int VERSION = 1;
+    static final long DIRECTORY = -1;
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+
+    private SyncManifest(Path file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    static Path location(String vaultPath, String vaultDir, Path localDir) {
+        String key = Paths.get(vaultPath).toAbsolutePath().normalize() + "\0" + VaultOperations.normalizePath(vaultDir)
+                + "\0" + localDir.toAbsolutePath().normalize();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return SYNC_DIR.resolve(HexFormat.of().formatHex(digest, 0, 16) + ".manifest");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static SyncManifest load(Path file) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Unsupported sync manifest: " + file);
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String path = in.readUTF();
+                    long size = in.readLong();
+                    long modified = in.readLong();
+                    byte[] hash = new byte[in.readUnsignedByte()];
+                    in.readFully(hash);
+                    entries.put(path, new Entry(size, modified, hash));
+                }
+            }
+        }
+        return new SyncManifest(file, entries);
+    }
+
+    static SyncManifest empty(Path file) {
+        return new SyncManifest(file, new HashMap<>());
+    }
+
+    Map<String, Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Writes the manifest to a temporary file and moves it into place, so an interrupted run keeps the
+     * previous state.
+     */
+    void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().modified);
+                out.writeByte(e.getValue().hash.length);
+                out.write(e.getValue().hash);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static byte[] hash(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[1024 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                Throttle.READ.acquire(read);
+                digest.update(buffer, 0, read);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static final class Entry {
+        final long size;
+        final long modified;
+        final byte[] hash;
+
+        Entry(long size, long modified, byte[] hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        boolean isDirectory() {
+            return size == DIRECTORY;
+        }
+
+        boolean sameAttributes(Entry other) {
+            return other != null && size == other.size && modified == other.modified;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.cryptomator.cli;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a tar stream entry by entry: ustar headers, pax extended headers ({@code path}, {@code size},
+ * {@code mtime}) and GNU long names, with sizes in octal or GNU base-256 encoding.
+ */
+class TarReader {
+
+    private static final int BLOCK_SIZE = TarWriter.BLOCK_SIZE;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private long remaining;
+    private long padding;
+
+    TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    static final class Entry {
+        final String name;
+        final char type;
+        final long size;
+        final long modifiedMillis;
+
+        Entry(String name, char type, long size, long modifiedMillis) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+        }
+
+        boolean isDirectory() {
+            return type == '5';
+        }
+
+        boolean isFile() {
+            return type == '0' || type == '\0' || type == '7';
+        }
+    }
+
+    /**
+     * Skips what is left of the current entry's content and reads the next header.
+     *
+     * @return the next entry, or {@code null} at the end of the archive
+     */
+    Entry next() throws IOException {
+        skip(remaining + padding);
+        remaining = 0;
+        padding = 0;
+
+        String name = null;
+        long size = -1;
+        long modified = -1;
+        while (true) {
+            if (!readHeader()) {
+                return null;
+            }
+            char type = (char) header[156];
+            long headerSize = number(124, 12);
+            if (type == 'x' || type == 'g' || type == 'L') {
+                byte[] data = readData(headerSize);
+                if (type == 'L') {
+                    name = cString(data, 0, data.length);
+                } else if (type == 'x') {
+                    // other pax keys (owner, atime, ...) are not needed
+                    for (String[] record : paxRecords(data)) {
+                        if (record[0].equals("path")) {
+                            name = record[1];
+                        } else if (record[0].equals("size")) {
+                            size = Long.parseLong(record[1]);
+                        } else if (record[0].equals("mtime")) {
+                            modified = (long) (Double.parseDouble(record[1]) * 1000);
+                        }
+                    }
+                }
+                continue;
+            }
+
+            if (name == null) {
+                name = cString(header, 0, 100);
+                if (cString(header, 257, 5).equals("ustar")) {
+                    String prefix = cString(header, 345, 155);
+                    if (!prefix.isEmpty()) {
+                        name = prefix + "/" + name;
+                    }
+                }
+            }
+            if (size < 0) {
+                size = headerSize;
+            }
+            if (modified < 0) {
+                modified = number(136, 12) * 1000;
+            }
+            Entry entry = new Entry(name, type, type == '5' ? 0 : size, modified);
+            remaining = entry.size;
+            padding = (BLOCK_SIZE - entry.size % BLOCK_SIZE) % BLOCK_SIZE;
+            return entry;
+        }
+    }
+
+    /**
+     * @return the content of the current entry; reading it is optional, {@link #next()} skips the rest
+     */
+    ReadableByteChannel content() {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (remaining == 0) {
+                    return -1;
+                }
+                int length = (int) Math.min(dst.remaining(), remaining);
+                int read;
+                if (dst.hasArray()) {
+                    read = in.read(dst.array(), dst.arrayOffset() + dst.position(), length);
+                    if (read > 0) {
+                        dst.position(dst.position() + read);
+                    }
+                } else {
+                    byte[] bytes = new byte[length];
+                    read = in.read(bytes);
+                    if (read > 0) {
+                        dst.put(bytes, 0, read);
+                    }
+                }
+                if (read < 0) {
+                    throw new EOFException("Archive ends inside an entry");
+                }
+                remaining -= read;
+                return read;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Reads the whole content of the current entry, which must be small enough for an array.
+     */
+    byte[] readContent() throws IOException {
+        byte[] data = readData(remaining);
+        remaining = 0;
+        padding = 0;
+        return data;
+    }
+
+    /**
+     * @return false at the end of the archive: a zero block, or the end of the stream at a block boundary
+     */
+    private boolean readHeader() throws IOException {
+        int read = in.readNBytes(header, 0, BLOCK_SIZE);
+        if (read == 0) {
+            return false;
+        } else if (read < BLOCK_SIZE) {
+            throw new EOFException("Archive ends inside a header");
+        }
+        boolean zero = true;
+        for (byte b : header) {
+            if (b != 0) {
+                zero = false;
+                break;
+            }
+        }
+        if (zero) {
+            return false;
+        }
+
+        long expected = number(148, 8);
+        long unsigned = 0;
+        long signed = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            byte b = i >= 148 && i < 156 ? (byte) ' ' : header[i];
+            unsigned += b & 0xff;
+            signed += b;
+        }
+        if (expected != unsigned && expected != signed) {
+            throw new IOException("Not a tar archive or corrupt header (checksum mismatch)");
+        }
+        return true;
+    }
+
+    /**
+     * Reads an entry's data including its padding to the next block.
+     */
+    private byte[] readData(long size) throws IOException {
+        if (size > Integer.MAX_VALUE - BLOCK_SIZE) {
+            throw new IOException("Entry too large to read into memory: " + size + " bytes");
+        }
+        byte[] data = in.readNBytes((int) size);
+        if (data.length < size) {
+            throw new EOFException("Archive ends inside an entry");
+        }
+        skip((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+        return data;
+    }
+
+    private void skip(long bytes) throws IOException {
+        long left = bytes;
+        while (left > 0) {
+            long skipped = in.skip(left);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Archive ends inside an entry");
+                }
+                skipped = 1;
+            }
+            left -= skipped;
+        }
+    }
+
+    /**
+     * Parses a numeric header field: NUL- or space-terminated octal, or GNU base-256 if the high bit is set.
+     */
+    private long number(int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (header[offset + i] & 0xff);
+            }
+            return value;
+        }
+        String digits = cString(header, offset, length).trim();
+        if (digits.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(digits, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a tar archive or corrupt header (invalid number: " + digits + ")");
+        }
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the key/value pairs of pax records {@code "<length> <key>=<value>\n"}
+     */
+    private static List<String[]> paxRecords(byte[] data) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        int position = 0;
+        while (position < data.length) {
+            int space = position;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt pax header");
+            }
+            if (length <= 0 || position + length > data.length) {
+                throw new IOException("Corrupt pax header");
+            }
+            String record = new String(data, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                records.add(new String[]{record.substring(0, equals), record.substring(equals + 1)});
+            }
+            position += length;
+        }
+        return records;
+    }
+}
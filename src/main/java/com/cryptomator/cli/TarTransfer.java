@@ -0,0 +1,333 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a vault subtree out as a tar archive, or unpacks one into a vault, in a single pass.
+ * <p>
+ * The tar stream itself is strictly sequential, so the concurrency is around it: when exporting, workers
+ * decrypt the next files (up to {@link #PREFETCH_LIMIT} each) while the current one is written; when
+ * importing, small files are read from the archive into memory and encrypted by workers while the archive
+ * is read on. Larger files are streamed directly. At most {@code parallelism * 4} files are in flight.
+ */
+class TarTransfer {
+
+    static final int PREFETCH_LIMIT = 1024 * 1024;
+
+    private final int parallelism;
+    private final int window;
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    TarTransfer(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.window = this.parallelism * 4;
+    }
+
+    /**
+     * An archive entry whose content, if small enough, has been read ahead.
+     */
+    private static final class Item {
+        final Path path;
+        final String name;
+        final BasicFileAttributes attrs;
+        final byte[] content;
+
+        Item(Path path, String name, BasicFileAttributes attrs, byte[] content) {
+            this.path = path;
+            this.name = name;
+            this.attrs = attrs;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Writes {@code root} (a directory's contents, or a single file) to {@code out} as a tar archive. Names in
+     * the archive are relative to {@code root}.
+     *
+     * @return descriptions of the entries that could not be read and were left out
+     */
+    List<String> export(Path root, OutputStream out, TransferProgress progress) throws IOException {
+        TarWriter tar = new TarWriter(out);
+        ExecutorService readers = Workers.newExecutor("export", parallelism, false);
+        Deque<Future<Item>> pending = new ArrayDeque<>();
+        try {
+            BasicFileAttributes rootAttrs = Files.readAttributes(root, BasicFileAttributes.class);
+            if (!rootAttrs.isDirectory()) {
+                String name = root.getFileName() == null ? "file" : root.getFileName().toString();
+                pending.add(readers.submit(() -> read(root, name, rootAttrs)));
+            } else {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                        if (!dir.equals(root)) {
+                            enqueue(CompletableFuture.completedFuture(new Item(dir, name(root, dir), attrs, null)));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (attrs.isRegularFile()) {
+                            String name = name(root, file);
+                            enqueue(readers.submit(() -> read(file, name, attrs)));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        failures.add(file + ": " + e.getMessage());
+                        progress.failed();
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    private void enqueue(Future<Item> item) throws IOException {
+                        pending.add(item);
+                        while (pending.size() > window) {
+                            write(tar, pending.poll(), progress);
+                        }
+                    }
+                });
+            }
+            while (!pending.isEmpty()) {
+                write(tar, pending.poll(), progress);
+            }
+            tar.finish();
+        } finally {
+            readers.shutdownNow();
+            try {
+                readers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pending.forEach(TarTransfer::discard);
+        }
+        return failures;
+    }
+
+    /**
+     * Returns the memory of an entry that was read ahead but will not be written.
+     */
+    private static void discard(Future<Item> future) {
+        if (!future.isDone() || future.isCancelled()) {
+            return;
+        }
+        try {
+            Item item = future.get();
+            if (item.content != null) {
+                BufferPool.releaseMemory(item.content.length);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            // failed reads have released their memory already
+        }
+    }
+
+    private static String name(Path root, Path path) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : root.relativize(path)) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(part);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Reads a small file ahead if the memory budget allows, otherwise leaves it to be streamed by the writer.
+     */
+    private static Item read(Path file, String name, BasicFileAttributes attrs) throws IOException {
+        if (attrs.size() > PREFETCH_LIMIT || !BufferPool.tryReserveMemory(attrs.size())) {
+            return new Item(file, name, attrs, null);
+        }
+        long start = Stats.start();
+        byte[] content = new byte[(int) attrs.size()];
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+            int read;
+            while (buffer.hasRemaining() && (read = channel.read(buffer)) != -1) {
+                Throttle.READ.acquire(read);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("file shrank while reading");
+            }
+        } catch (IOException e) {
+            BufferPool.releaseMemory(content.length);
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+        Stats.operation("download", start, content.length);
+        return new Item(file, name, attrs, content);
+    }
+
+    private void write(TarWriter tar, Future<Item> future, TransferProgress progress) throws IOException {
+        Item item;
+        try {
+            item = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } catch (ExecutionException e) {
+            // nothing of the entry has been written yet, so it can be left out
+            failures.add(e.getCause().getMessage());
+            progress.failed();
+            return;
+        }
+
+        long modified = item.attrs.lastModifiedTime().toMillis();
+        if (item.attrs.isDirectory()) {
+            tar.putDirectory(item.name, modified);
+        } else if (item.content != null) {
+            try {
+                Throttle.WRITE.acquire(item.content.length);
+                tar.putFile(item.name, item.content, modified);
+            } finally {
+                BufferPool.releaseMemory(item.content.length);
+            }
+            progress.fileDone(item.content.length);
+        } else {
+            long start = Stats.start();
+            try (SeekableByteChannel channel = Files.newByteChannel(item.path, StandardOpenOption.READ)) {
+                tar.putFile(item.name, item.attrs.size(), modified, channel);
+            }
+            Stats.operation("download", start, item.attrs.size());
+            progress.fileDone(item.attrs.size());
+        }
+    }
+
+    /**
+     * Unpacks the tar archive from {@code in} below {@code target}, creating it if necessary. Entries other
+     * than files and directories, and names that would leave {@code target}, are skipped and reported.
+     *
+     * @return descriptions of the entries that could not be imported
+     */
+    List<String> importArchive(InputStream in, Path target, TransferProgress progress) throws IOException {
+        TarReader tar = new TarReader(in);
+        DirectoryCache directories = new DirectoryCache();
+        directories.ensure(target);
+        ExecutorService writers = Workers.newExecutor("import", parallelism, false);
+        Semaphore slots = new Semaphore(window);
+        try {
+            for (TarReader.Entry entry = tar.next(); entry != null; entry = tar.next()) {
+                Path path;
+                try {
+                    path = resolve(target, entry.name);
+                } catch (IOException e) {
+                    failures.add(entry.name + ": " + e.getMessage());
+                    progress.failed();
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    directories.ensure(path);
+                } else if (!entry.isFile()) {
+                    failures.add(entry.name + ": unsupported entry type '" + entry.type + "'");
+                    progress.failed();
+                } else if (entry.size <= PREFETCH_LIMIT && BufferPool.tryReserveMemory(entry.size)) {
+                    long reserved = entry.size;
+                    byte[] content;
+                    try {
+                        directories.ensure(path.getParent());
+                        content = tar.readContent();
+                        Throttle.READ.acquire(content.length);
+                        acquire(slots);
+                    } catch (IOException | RuntimeException e) {
+                        BufferPool.releaseMemory(reserved);
+                        throw e;
+                    }
+                    TarReader.Entry file = entry;
+                    writers.execute(() -> {
+                        try {
+                            writeFile(path, file, content, progress);
+                        } finally {
+                            BufferPool.releaseMemory(reserved);
+                            slots.release();
+                        }
+                    });
+                } else {
+                    directories.ensure(path.getParent());
+                    long start = Stats.start();
+                    try (SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        ChannelCopier.copy(tar.content(), channel, entry.size);
+                    }
+                    Files.setLastModifiedTime(path, FileTime.fromMillis(entry.modifiedMillis));
+                    Stats.operation("upload", start, entry.size);
+                    progress.fileDone(entry.size);
+                }
+            }
+        } finally {
+            writers.shutdown();
+            try {
+                writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                writers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        return failures;
+    }
+
+    private void writeFile(Path path, TarReader.Entry entry, byte[] content, TransferProgress progress) {
+        long start = Stats.start();
+        try {
+            Throttle.WRITE.acquire(content.length);
+            Files.write(path, content);
+            Files.setLastModifiedTime(path, FileTime.fromMillis(entry.modifiedMillis));
+            Stats.operation("upload", start, content.length);
+            progress.fileDone(content.length);
+        } catch (IOException | RuntimeException e) {
+            failures.add(entry.name + ": " + e.getMessage());
+            progress.failed();
+        }
+    }
+
+    /**
+     * Resolves an archive name below {@code target}, refusing absolute names and names containing {@code ..}.
+     */
+    private static Path resolve(Path target, String name) throws IOException {
+        if (name.startsWith("/")) {
+            throw new IOException("absolute name, not imported");
+        }
+        Path path = target;
+        for (String part : name.split("/")) {
+            if (part.equals("..")) {
+                throw new IOException("name leaves the target directory, not imported");
+            }
+            if (!part.isEmpty() && !part.equals(".")) {
+                try {
+                    path = path.resolve(part);
+                } catch (InvalidPathException e) {
+                    throw new IOException("invalid name: " + e.getReason());
+                }
+            }
+        }
+        return path;
+    }
+
+    private static void acquire(Semaphore slots) throws InterruptedIOException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a POSIX tar (ustar) stream of regular files and directories.
+ * <p>
+ * Names that are longer than the 100 bytes of the ustar name field or not plain ASCII, and files of 8 GiB
+ * or more, get a pax extended header with the exact value, which GNU tar, bsdtar and {@link TarReader} all
+ * understand.
+ */
+class TarWriter {
+
+    static final int BLOCK_SIZE = 512;
+
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+    private static final byte[] PADDING = new byte[BLOCK_SIZE];
+
+    private final OutputStream out;
+
+    TarWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    void putDirectory(String name, long modifiedMillis) throws IOException {
+        putHeader(name.endsWith("/") ? name : name + "/", '5', 0, modifiedMillis);
+    }
+
+    void putFile(String name, byte[] content, long modifiedMillis) throws IOException {
+        putHeader(name, '0', content.length, modifiedMillis);
+        out.write(content);
+        pad(content.length);
+    }
+
+    /**
+     * Writes a file entry with exactly {@code size} bytes from {@code content}.
+     */
+    void putFile(String name, long size, long modifiedMillis, ReadableByteChannel content) throws IOException {
+        putHeader(name, '0', size, modifiedMillis);
+        ChannelCopier.copy(content, Channels.newChannel(out), size);
+        pad(size);
+    }
+
+    /**
+     * Writes the end-of-archive marker (two zero blocks) and flushes the stream without closing it.
+     */
+    void finish() throws IOException {
+        out.write(PADDING);
+        out.write(PADDING);
+        out.flush();
+    }
+
+    private void putHeader(String name, char type, long size, long modifiedMillis) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean longName = nameBytes.length > 100 || nameBytes.length != name.length();
+        boolean largeFile = size > MAX_OCTAL_SIZE;
+        if (longName || largeFile) {
+            StringBuilder records = new StringBuilder();
+            if (longName) {
+                records.append(paxRecord("path", name));
+            }
+            if (largeFile) {
+                records.append(paxRecord("size", Long.toString(size)));
+            }
+            byte[] pax = records.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(header("././@PaxHeader", 'x', pax.length, modifiedMillis));
+            out.write(pax);
+            pad(pax.length);
+        }
+        out.write(header(longName ? asciiPrefix(name) : name, type, largeFile ? 0 : size, modifiedMillis));
+    }
+
+    private static byte[] header(String name, char type, long size, long modifiedMillis) {
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(100, nameBytes.length));
+        octal(header, 100, 8, type == '5' ? 0755 : 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, Math.max(0, modifiedMillis / 1000));
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+
+        // the checksum is computed with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /**
+     * Writes {@code value} as zero-padded octal digits followed by a NUL into {@code length} bytes at {@code offset}.
+     */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int pad = length - 1 - digits.length();
+        for (int i = 0; i < pad; i++) {
+            header[offset + i] = '0';
+        }
+        byte[] bytes = digits.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset + pad, bytes.length);
+        header[offset + length - 1] = 0;
+    }
+
+    /**
+     * @return a pax record {@code "<length> <key>=<value>\n"}, whose length counts its own digits
+     */
+    private static String paxRecord(String key, String value) {
+        int payload = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = payload + Integer.toString(payload).length();
+        if (Integer.toString(length).length() != Integer.toString(payload).length()) {
+            length++;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    /**
+     * @return a name for the ustar header of an entry whose real name is in a pax header, for older readers
+     */
+    private static String asciiPrefix(String name) {
+        StringBuilder ascii = new StringBuilder();
+        for (int i = 0; i < name.length() && ascii.length() < 100; i++) {
+            char c = name.charAt(i);
+            ascii.append(c < 0x80 ? c : '_');
+        }
+        return ascii.toString();
+    }
+
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder != 0) {
+            out.write(PADDING, 0, BLOCK_SIZE - remainder);
+        }
+    }
+}
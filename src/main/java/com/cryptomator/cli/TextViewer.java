@@ -0,0 +1,235 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Scanner;
+
+/**
+ * {@code cat}, {@code head}, {@code tail} and a {@code less}-style pager for the interactive shell.
+ * <p>
+ * Everything reads through a {@link SeekableByteChannel} in blocks of the vault format's 32 KiB cleartext
+ * chunk size, so memory use is bounded and only the chunks that are shown get decrypted, e.g. the last
+ * few for {@code tail} on a multi-GB log.
+ */
+class TextViewer {
+
+    static final int CHUNK_SIZE = 32 * 1024;
+    static final int DEFAULT_LINES = 10;
+
+    private final SeekableByteChannel channel;
+    private final PrintStream out;
+    private final ByteBuffer block = ByteBuffer.allocate(CHUNK_SIZE);
+
+    TextViewer(SeekableByteChannel channel, PrintStream out) {
+        this.channel = channel;
+        this.out = out;
+    }
+
+    void cat() throws IOException {
+        channel.position(0);
+        ChannelCopier.copy(channel, Channels.newChannel(out));
+        finishLine();
+    }
+
+    void head(int lines) throws IOException {
+        printLines(0, lines, Long.MAX_VALUE);
+        out.flush();
+    }
+
+    void tail(int lines) throws IOException {
+        long start = startOfLastLines(lines);
+        channel.position(start);
+        ChannelCopier.copy(channel, Channels.newChannel(out));
+        finishLine();
+    }
+
+    /**
+     * Shows {@code pageLines} lines at a time and reads a command per page from {@code input}:
+     * Enter for the next page, {@code b} for the previous one, {@code g}/{@code G} for start/end,
+     * {@code /text} to jump to the next line containing {@code text}, {@code q} to quit.
+     */
+    void page(int pageLines, Scanner input) throws IOException {
+        long size = channel.size();
+        long maxPageBytes = (long) pageLines * 512;
+        Deque<Long> previous = new ArrayDeque<>();
+        long position = 0;
+        while (true) {
+            long next = printLines(position, pageLines, maxPageBytes);
+            if (next >= size) {
+                out.print("(END) ");
+            } else {
+                out.printf("--More-- (%d%%) ", size == 0 ? 100 : next * 100 / size);
+            }
+            out.flush();
+            if (!input.hasNextLine()) {
+                out.println();
+                return;
+            }
+            String command = input.nextLine().trim();
+            if (command.equals("q")) {
+                return;
+            } else if (command.equals("b")) {
+                position = previous.isEmpty() ? 0 : previous.pop();
+            } else if (command.equals("g")) {
+                previous.clear();
+                position = 0;
+            } else if (command.equals("G")) {
+                previous.push(position);
+                position = startOfLastLines(pageLines);
+            } else if (command.startsWith("/") && command.length() > 1) {
+                long match = find(command.substring(1).getBytes(StandardCharsets.UTF_8), next);
+                if (match < 0) {
+                    out.println("Pattern not found: " + command.substring(1));
+                } else {
+                    previous.push(position);
+                    position = startOfLine(match);
+                }
+            } else if (next < size) {
+                previous.push(position);
+                position = next;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Prints up to {@code lines} lines starting at {@code position}, but at most {@code maxBytes} bytes.
+     *
+     * @return the position after the last printed byte
+     */
+    private long printLines(long position, int lines, long maxBytes) throws IOException {
+        long size = channel.size();
+        long end = position + maxBytes < 0 ? size : Math.min(size, position + maxBytes);
+        int remaining = lines;
+        while (position < end && remaining > 0) {
+            int length = read(position);
+            if (length <= 0) {
+                break;
+            }
+            int limit = (int) Math.min(length, end - position);
+            int printed = 0;
+            while (printed < limit && remaining > 0) {
+                if (block.get(printed++) == '\n') {
+                    remaining--;
+                }
+            }
+            out.write(block.array(), 0, printed);
+            position += printed;
+        }
+        if (remaining > 0 && position == size) {
+            finishLine();
+        }
+        return position;
+    }
+
+    /**
+     * @return the position of the first of the last {@code lines} lines, not counting a final newline
+     */
+    private long startOfLastLines(int lines) throws IOException {
+        long size = channel.size();
+        if (lines <= 0) {
+            return size;
+        }
+        int found = 0;
+        long blockStart = size;
+        while (blockStart > 0) {
+            long blockEnd = blockStart;
+            blockStart = (blockEnd - 1) / CHUNK_SIZE * CHUNK_SIZE;
+            int length = read(blockStart);
+            for (int i = (int) Math.min(length, blockEnd - blockStart) - 1; i >= 0; i--) {
+                long offset = blockStart + i;
+                if (block.get(i) == '\n' && offset != size - 1 && ++found == lines) {
+                    return offset + 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private long startOfLine(long position) throws IOException {
+        long blockEnd = position;
+        while (blockEnd > 0) {
+            long blockStart = (blockEnd - 1) / CHUNK_SIZE * CHUNK_SIZE;
+            int length = read(blockStart);
+            for (int i = (int) Math.min(length, blockEnd - blockStart) - 1; i >= 0; i--) {
+                if (block.get(i) == '\n') {
+                    return blockStart + i + 1;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the position of the first occurrence of {@code pattern} at or after {@code from}, or -1
+     */
+    private long find(byte[] pattern, long from) throws IOException {
+        long size = channel.size();
+        long blockStart = from;
+        while (blockStart < size) {
+            int length = read(blockStart);
+            if (length <= 0) {
+                break;
+            }
+            for (int i = 0; i + pattern.length <= length; i++) {
+                if (matchesAt(pattern, i)) {
+                    return blockStart + i;
+                }
+            }
+            if (blockStart + length >= size) {
+                break;
+            }
+            // overlap the next block, so matches across the boundary are found
+            blockStart += Math.max(1, length - pattern.length + 1);
+        }
+        return -1;
+    }
+
+    private boolean matchesAt(byte[] pattern, int index) {
+        for (int j = 0; j < pattern.length; j++) {
+            if (block.get(index + j) != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ends the output with a newline if the file does not, so the shell prompt starts on its own line.
+     */
+    private void finishLine() throws IOException {
+        long size = channel.size();
+        if (size > 0) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(size - 1);
+            channel.read(last);
+            if (last.get(0) != '\n') {
+                out.println();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Fills {@link #block} from {@code position}, up to one chunk.
+     *
+     * @return number of bytes read
+     */
+    private int read(long position) throws IOException {
+        block.clear();
+        channel.position(position);
+        while (block.hasRemaining() && channel.read(block) > 0) {
+            // keep reading until the block is full or the file ends
+        }
+        block.flip();
+        return block.limit();
+    }
+}
@@ -0,0 +1,99 @@
+package com.cryptomator.cli;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that caps the combined throughput of all transfers in the process.
+ * <p>
+ * Copy loops charge {@link #READ} for every block read from a source and {@link #WRITE} for every block
+ * written to a target, so the limits hold across concurrent workers and commands. A rate of 0 means
+ * unlimited. Rates can be changed at any time; waiting threads pick up a new rate within
+ * {@link #MAX_SLEEP_NANOS}.
+ */
+final class Throttle {
+
+    static final Throttle READ = new Throttle("read");
+    static final Throttle WRITE = new Throttle("write");
+
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String name;
+    private volatile long bytesPerSecond;
+    // at most one second's worth; may go negative by the last block, which later callers then wait off
+    private double tokens;
+    private long refilledAt;
+
+    private Throttle(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    long rate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @param bytesPerSecond new limit, or 0 to remove it
+     */
+    synchronized void setRate(long bytesPerSecond) {
+        if (this.bytesPerSecond > 0) {
+            refill(this.bytesPerSecond);
+        } else {
+            tokens = 0;
+            refilledAt = System.nanoTime();
+        }
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        tokens = Math.min(tokens, this.bytesPerSecond);
+    }
+
+    /**
+     * Blocks until {@code bytes} may pass. A block larger than one second's worth passes once the bucket is
+     * not in debt, and the following callers wait for it.
+     */
+    void acquire(long bytes) throws InterruptedIOException {
+        if (bytesPerSecond == 0 || bytes <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    long rate = bytesPerSecond;
+                    if (rate == 0) {
+                        return;
+                    }
+                    refill(rate);
+                    if (tokens >= 0) {
+                        tokens -= bytes;
+                        return;
+                    }
+                    waitNanos = (long) (-tokens * 1e9 / rate);
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.max(1, Math.min(waitNanos, MAX_SLEEP_NANOS)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        } finally {
+            Stats.phaseNanos(Stats.Phase.THROTTLED, System.nanoTime() - start);
+        }
+    }
+
+    private void refill(long rate) {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - refilledAt) * (double) rate / 1e9);
+        refilledAt = now;
+    }
+
+    /**
+     * @return the rate as shown to users, e.g. "10.0 MB/s" or "unlimited"
+     */
+    static String describe(long bytesPerSecond) {
+        return bytesPerSecond == 0 ? "unlimited" : VaultOperations.formatSize(bytesPerSecond) + "/s";
+    }
+}
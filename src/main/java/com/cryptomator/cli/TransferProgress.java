@@ -0,0 +1,92 @@
+package com.cryptomator.cli;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts files and bytes of a bulk transfer and periodically prints the current throughput.
+ */
+class TransferProgress implements AutoCloseable {
+
+    private final String verb;
+    private final boolean countBytes;
+    private final PrintStream progress;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final ScheduledExecutorService ticker;
+
+    /**
+     * @param verb     past-tense verb used in the report, e.g. "Uploaded"
+     * @param progress stream for the live progress line, or {@code null} to only produce a summary
+     */
+    TransferProgress(String verb, PrintStream progress) {
+        this(verb, true, progress);
+    }
+
+    private TransferProgress(String verb, boolean countBytes, PrintStream progress) {
+        this.verb = verb;
+        this.countBytes = countBytes;
+        this.progress = progress;
+        if (progress != null) {
+            ticker = Executors.newSingleThreadScheduledExecutor(Workers.daemonThreads("progress"));
+            ticker.scheduleAtFixedRate(() -> progress.print("\r" + summary() + "   "), 1, 1, TimeUnit.SECONDS);
+        } else {
+            ticker = null;
+        }
+    }
+
+    /**
+     * Progress for operations without payload, such as deletes, which only reports entries per second.
+     */
+    static TransferProgress entries(String verb, PrintStream progress) {
+        return new TransferProgress(verb, false, progress);
+    }
+
+    void fileDone(long size) {
+        files.increment();
+        bytes.add(size);
+    }
+
+    void failed() {
+        failures.increment();
+    }
+
+    long files() {
+        return files.sum();
+    }
+
+    long bytes() {
+        return bytes.sum();
+    }
+
+    long failures() {
+        return failures.sum();
+    }
+
+    String summary() {
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-3);
+        long fileCount = files.sum();
+        long byteCount = bytes.sum();
+        String summary = countBytes
+                ? String.format("%s %d files (%s) in %.1fs - %.1f files/s, %.2f MB/s",
+                        verb, fileCount, VaultOperations.formatSize(byteCount), seconds,
+                        fileCount / seconds, byteCount / seconds / (1024 * 1024))
+                : String.format("%s %d entries in %.1fs - %.1f entries/s", verb, fileCount, seconds, fileCount / seconds);
+        long failed = failures.sum();
+        return failed > 0 ? summary + ", " + failed + " failed" : summary;
+    }
+
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            progress.print("\r");
+            progress.flush();
+        }
+    }
+}
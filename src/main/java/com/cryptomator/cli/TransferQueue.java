@@ -0,0 +1,316 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Background uploads and downloads of single files for the interactive shell ({@code upload <file> &}).
+ * <p>
+ * Jobs run on a fixed number of workers against the shared {@link CryptoFileSystem} while the prompt stays
+ * usable; further jobs wait in the queue. Each worker copies through one buffer of a shared {@link BufferPool},
+ * so memory does not grow with the number of queued jobs. Finished jobs are reported once, at the next prompt.
+ */
+class TransferQueue implements AutoCloseable {
+
+    enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private static final int MIN_DEFAULT_PARALLELISM = 4;
+
+    private final MetadataCache cache;
+    private final ExecutorService executor;
+    private final BufferPool buffers;
+    private final Map<Integer, Job> jobs = new LinkedHashMap<>();
+    private int nextId = 1;
+
+    TransferQueue(MetadataCache cache, int parallelism) {
+        int workers = Math.max(1, parallelism);
+        this.cache = cache;
+        this.executor = Workers.newExecutor("transfer", workers, false);
+        this.buffers = new BufferPool(workers, ChannelCopier.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Transfers spend much of their time waiting for disk I/O, so even small hosts run a few at once.
+     */
+    static int defaultParallelism() {
+        return Math.max(MIN_DEFAULT_PARALLELISM, Workers.defaultParallelism());
+    }
+
+    /**
+     * Queues a copy of the regular file {@code source} to {@code target}, replacing the target if it exists.
+     */
+    synchronized Job submit(Path source, Path target) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new IOException("File not found: " + source);
+        }
+        if (!attrs.isRegularFile()) {
+            throw new IOException("Not a regular file: " + source);
+        }
+        Job job = new Job(nextId++, source, target, attrs.size());
+        jobs.put(job.id, job);
+        job.future = executor.submit(() -> run(job));
+        return job;
+    }
+
+    private void run(Job job) {
+        if (!job.state.compareAndSet(State.QUEUED, State.RUNNING)) {
+            return;
+        }
+        job.startNanos = System.nanoTime();
+        boolean toVault = job.target.getFileSystem() instanceof CryptoFileSystem;
+        State result = State.DONE;
+        boolean targetOpened = false;
+        try {
+            long start = Stats.start();
+            ByteBuffer buffer = buffers.take();
+            try (SeekableByteChannel in = Files.newByteChannel(job.source, StandardOpenOption.READ);
+                 SeekableByteChannel out = Files.newByteChannel(job.target, StandardOpenOption.WRITE,
+                         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                targetOpened = true;
+                ChannelCopier.copy(in, new JobChannel(job, out), buffer);
+            } finally {
+                buffers.release(buffer);
+            }
+            Stats.operation(ChannelCopier.direction(job.source, job.target), start, job.transferred.get());
+        } catch (CancelledException e) {
+            result = State.CANCELLED;
+        } catch (NoSuchFileException e) {
+            job.error = "No such file or directory: " + e.getMessage();
+            result = State.FAILED;
+        } catch (IOException | RuntimeException e) {
+            job.error = e.getMessage();
+            result = State.FAILED;
+        }
+        // before the target is opened, it may be an unrelated file that must survive
+        if (result != State.DONE && targetOpened) {
+            deletePartialTarget(job);
+        }
+        if (toVault) {
+            if (result == State.DONE) {
+                PathIndex.updated(job.target);
+            }
+            cache.invalidate(job.target);
+        }
+        job.endNanos = System.nanoTime();
+        job.state.set(result);
+    }
+
+    private void deletePartialTarget(Job job) {
+        try {
+            if (Files.deleteIfExists(job.target) && job.target.getFileSystem() instanceof CryptoFileSystem) {
+                PathIndex.removed(job.target);
+            }
+        } catch (IOException e) {
+            job.error = (job.error == null ? "" : job.error + "; ") + "partial target left behind: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Requests cancellation of one job, or of all jobs if {@code id} is {@code null}. Running jobs stop after
+     * their current buffer and delete the partial target.
+     *
+     * @return number of jobs that were still queued or running
+     */
+    synchronized int cancel(Integer id) {
+        int cancelled = 0;
+        for (Job job : select(id)) {
+            if (job.state.compareAndSet(State.QUEUED, State.CANCELLED)) {
+                job.endNanos = System.nanoTime();
+                job.future.cancel(false);
+                cancelled++;
+            } else if (job.state.get() == State.RUNNING) {
+                job.cancelRequested = true;
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Blocks until one job, or all jobs if {@code id} is {@code null}, have finished.
+     */
+    void await(Integer id) throws InterruptedException {
+        List<Job> selected;
+        synchronized (this) {
+            selected = select(id);
+        }
+        for (Job job : selected) {
+            try {
+                job.future.get();
+            } catch (CancellationException | ExecutionException e) {
+                // the outcome is recorded in the job's state
+            }
+        }
+    }
+
+    private List<Job> select(Integer id) {
+        if (id == null) {
+            return new ArrayList<>(jobs.values());
+        }
+        Job job = jobs.get(id);
+        if (job == null) {
+            throw new IllegalArgumentException("No such job: " + id);
+        }
+        return List.of(job);
+    }
+
+    synchronized int active() {
+        int active = 0;
+        for (Job job : jobs.values()) {
+            if (!job.isFinished()) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    synchronized void printJobs(PrintStream out) {
+        if (jobs.isEmpty()) {
+            out.println("No background transfers");
+            return;
+        }
+        for (Job job : jobs.values()) {
+            out.println(job.describe());
+        }
+    }
+
+    /**
+     * Prints finished jobs that have not been reported yet and forgets them.
+     */
+    synchronized void reportFinished(PrintStream out) {
+        for (Iterator<Job> it = jobs.values().iterator(); it.hasNext(); ) {
+            Job job = it.next();
+            if (job.isFinished()) {
+                out.println(job.describe());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels all remaining jobs and waits for the workers to stop, so the file system can be closed.
+     */
+    @Override
+    public void close() {
+        cancel(null);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static final class Job {
+        final int id;
+        final Path source;
+        final Path target;
+        final long size;
+        final AtomicReference<State> state = new AtomicReference<>(State.QUEUED);
+        final AtomicLong transferred = new AtomicLong();
+        volatile boolean cancelRequested;
+        volatile long startNanos;
+        volatile long endNanos;
+        volatile String error;
+        Future<?> future;
+
+        Job(int id, Path source, Path target, long size) {
+            this.id = id;
+            this.source = source;
+            this.target = target;
+            this.size = size;
+        }
+
+        boolean isFinished() {
+            State current = state.get();
+            return current != State.QUEUED && current != State.RUNNING;
+        }
+
+        String describe() {
+            State current = state.get();
+            long bytes = transferred.get();
+            String amount;
+            if (current == State.DONE) {
+                amount = VaultOperations.formatSize(bytes);
+            } else {
+                amount = String.format("%3d%% %s / %s", size == 0 ? 100 : bytes * 100 / size,
+                        VaultOperations.formatSize(bytes), VaultOperations.formatSize(size));
+            }
+            String rate = "";
+            if (startNanos != 0) {
+                double seconds = Math.max(((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1e9, 1e-3);
+                rate = String.format("%.2f MB/s", bytes / seconds / (1024 * 1024));
+            }
+            String direction = target.getFileSystem() instanceof CryptoFileSystem ? "upload" : "download";
+            String line = String.format("[%d] %-9s %-28s %11s  %s %s -> %s", id, current.name().toLowerCase(),
+                    amount, rate, direction, source, target);
+            return error != null ? line + " (" + error + ")" : line;
+        }
+    }
+
+    /**
+     * Counts the bytes written for a job and stops the copy once cancellation was requested.
+     */
+    private static final class JobChannel implements WritableByteChannel {
+        private final Job job;
+        private final WritableByteChannel delegate;
+
+        JobChannel(Job job, WritableByteChannel delegate) {
+            this.job = job;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (job.cancelRequested) {
+                throw new CancelledException();
+            }
+            int written = delegate.write(src);
+            job.transferred.addAndGet(written);
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private static final class CancelledException extends IOException {
+        CancelledException() {
+            super("Cancelled");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a directory tree between two file systems (local to vault or vault to local) with a bounded
+ * number of concurrent file copies.
+ * <p>
+ * The calling thread walks the source tree while the workers copy files, so directory listing and
+ * decryption overlap. Directories are created by the walking thread before any of their files are
+ * queued, so the workers never have to check for missing parents. Each running copy holds one buffer
+ * from a fixed pool, which caps the memory used for data in flight.
+ */
+class TreeCopier {
+
+    static final int DEFAULT_IN_FLIGHT_BYTES = 64 * 1024 * 1024;
+
+    private final int parallelism;
+    private final boolean virtualThreads;
+    private final BufferPool buffers;
+    private final DirectoryCache directories = new DirectoryCache();
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    TreeCopier(int parallelism, boolean virtualThreads) {
+        this(parallelism, virtualThreads, DEFAULT_IN_FLIGHT_BYTES);
+    }
+
+    /**
+     * @param maxInFlightBytes total size of the copy buffers, split evenly between the workers
+     */
+    TreeCopier(int parallelism, boolean virtualThreads, long maxInFlightBytes) {
+        this.parallelism = Math.max(1, parallelism);
+        this.virtualThreads = virtualThreads;
+        this.buffers = BufferPool.forWorkers(this.parallelism, maxInFlightBytes);
+    }
+
+    /**
+     * Copies the contents of {@code sourceDir} into {@code targetDir}, creating it if necessary.
+     *
+     * @return descriptions of the entries that could not be copied
+     */
+    List<String> copy(Path sourceDir, Path targetDir, TransferProgress progress) throws IOException {
+        ExecutorService executor = Workers.newExecutor("copy", parallelism, virtualThreads);
+        Semaphore slots = new Semaphore(parallelism * 2);
+        try {
+            Files.walkFileTree(sourceDir, new SimpleFileVisitor<>() {
+                // time between callbacks is spent inside the walk, listing directories and reading attributes
+                private long resumed = Stats.start();
+
+                private FileVisitResult resume(FileVisitResult result) {
+                    resumed = Stats.start();
+                    return result;
+                }
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Stats.phase(Stats.Phase.DIRECTORY_TRAVERSAL, resumed);
+                    directories.ensure(toTargetPath(sourceDir, dir, targetDir));
+                    return resume(FileVisitResult.CONTINUE);
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Stats.phase(Stats.Phase.DIRECTORY_TRAVERSAL, resumed);
+                    return resume(super.postVisitDirectory(dir, e));
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Stats.phase(Stats.Phase.DIRECTORY_TRAVERSAL, resumed);
+                    if (!attrs.isRegularFile()) {
+                        return resume(FileVisitResult.CONTINUE);
+                    }
+                    Path target = toTargetPath(sourceDir, file, targetDir);
+                    try {
+                        slots.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Copy interrupted");
+                    }
+                    executor.execute(() -> {
+                        try {
+                            copyFile(file, target);
+                            progress.fileDone(attrs.size());
+                        } catch (IOException | RuntimeException e) {
+                            failures.add(file + ": " + e.getMessage());
+                            progress.failed();
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                    return resume(FileVisitResult.CONTINUE);
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    Stats.phase(Stats.Phase.DIRECTORY_TRAVERSAL, resumed);
+                    failures.add(file + ": " + e.getMessage());
+                    progress.failed();
+                    return resume(FileVisitResult.CONTINUE);
+                }
+            });
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        return failures;
+    }
+
+    private void copyFile(Path source, Path target) throws IOException {
+        ByteBuffer buffer = buffers.take();
+        try {
+            ChannelCopier.copy(source, target, buffer);
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Maps {@code source} below {@code sourceRoot} to the same relative location below {@code targetRoot},
+     * which may belong to a different file system.
+     */
+    static Path toTargetPath(Path sourceRoot, Path source, Path targetRoot) {
+        Path target = targetRoot;
+        for (Path part : sourceRoot.relativize(source)) {
+            if (!part.toString().isEmpty()) {
+                target = target.resolve(part.toString());
+            }
+        }
+        return target;
+    }
+}
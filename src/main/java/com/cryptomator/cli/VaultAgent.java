@@ -0,0 +1,274 @@
+package com.cryptomator.cli;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.cryptomator.cryptofs.CryptoFileSystem;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a single vault unlocked and serves operations on it over a Unix domain socket.
+ * <p>
+ * Each connection carries one request as a JSON line, e.g. {@code {"op":"list","path":"/"}},
+ * and receives one JSON line in reply: {@code {"exit":0,"output":"..."}} or
+ * {@code {"exit":1,"error":"..."}}. Uploads from stdin send the raw data after the request line;
+ * downloads to stdout receive a {@code {"exit":0,"size":N}} header followed by N raw bytes.
+ * See {@link AgentClient} for the client side.
+ */
+public class VaultAgent {
+
+    private static final int WORKER_THREADS = 8;
+
+    private final String vaultPath;
+    private final CryptoFileSystem fs;
+    private final Duration idleTimeout;
+    private final Path socketPath;
+    private final AtomicLong lastActivity = new AtomicLong(System.nanoTime());
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private volatile ServerSocketChannel server;
+
+    public VaultAgent(String vaultPath, CryptoFileSystem fs, Duration idleTimeout) throws IOException {
+        this.vaultPath = vaultPath;
+        this.fs = fs;
+        this.idleTimeout = idleTimeout;
+        this.socketPath = AgentClient.socketPath(vaultPath);
+    }
+
+    public void run() throws IOException {
+        if (AgentClient.isRunning(vaultPath)) {
+            throw new IllegalStateException("An agent is already running for this vault");
+        }
+        Files.deleteIfExists(socketPath);
+
+        ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        // on Ctrl+C or SIGTERM, remove the socket and lock the vault before the JVM exits
+        Thread shutdownHook = new Thread(() -> {
+            stop();
+            try {
+                closed.await(15, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            AgentClient.restrictToOwner(socketPath, "rw-------");
+            this.server = server;
+            watchdog.scheduleWithFixedDelay(this::checkIdle, 1, 1, TimeUnit.SECONDS);
+            System.out.println("Agent listening on " + socketPath);
+
+            while (server.isOpen()) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                activeRequests.incrementAndGet();
+                touch();
+                workers.execute(() -> handle(client));
+            }
+        } finally {
+            watchdog.shutdownNow();
+            workers.shutdown();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                Files.deleteIfExists(socketPath);
+            } finally {
+                PathIndex.detach(fs);
+                fs.close();
+                System.out.println("Agent stopped, vault locked");
+                closed.countDown();
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException e) {
+                    // the JVM is already shutting down
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        try {
+            ServerSocketChannel current = server;
+            if (current != null) {
+                current.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    private void touch() {
+        lastActivity.set(System.nanoTime());
+    }
+
+    private void checkIdle() {
+        if (activeRequests.get() > 0) {
+            return;
+        }
+        if (System.nanoTime() - lastActivity.get() > idleTimeout.toNanos()) {
+            System.out.println("Idle timeout reached");
+            stop();
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            String line = AgentClient.readLine(Channels.newInputStream(client));
+            if (line == null) {
+                return;
+            }
+            JsonObject request = JsonParser.parseString(line).getAsJsonObject();
+            if (request.get("op").getAsString().equals("download") && flag(request, "stdout")) {
+                streamDownload(request, client);
+            } else {
+                AgentClient.writeLine(client, execute(request, client));
+            }
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        } finally {
+            touch();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    /**
+     * Replies with a header carrying the file (or range) size, followed by the raw decrypted content. If the transfer
+     * fails midway the connection is closed early, which the client detects from the size.
+     */
+    private void streamDownload(JsonObject request, SocketChannel client) throws IOException {
+        SeekableByteChannel source;
+        try {
+            source = new VaultOperations(System.out).openForReading(fs, string(request, "file"));
+        } catch (Exception e) {
+            replyError(client, e);
+            return;
+        }
+        try (source) {
+            long size = source.size();
+            long start;
+            long end;
+            try {
+                ByteRange range = range(request);
+                start = range == null ? 0 : range.start(size);
+                end = range == null ? size : range.end(size);
+            } catch (IllegalArgumentException e) {
+                replyError(client, e);
+                return;
+            }
+            JsonObject header = new JsonObject();
+            header.addProperty("exit", 0);
+            header.addProperty("size", end - start);
+            AgentClient.writeLine(client, header);
+            source.position(start);
+            ChannelCopier.copy(source, client, end - start);
+        }
+    }
+
+    private static void replyError(SocketChannel client, Exception e) throws IOException {
+        JsonObject response = new JsonObject();
+        response.addProperty("exit", 1);
+        response.addProperty("error", e.getMessage());
+        AgentClient.writeLine(client, response);
+    }
+
+    private JsonObject execute(JsonObject request, ReadableByteChannel body) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+        VaultOperations ops = new VaultOperations(out);
+        JsonObject response = new JsonObject();
+
+        try {
+            String op = request.get("op").getAsString();
+            switch (op) {
+                case "status":
+                    out.println("Agent for " + vaultPath + " (idle timeout " + idleTimeout.toMinutes() + " min)");
+                    break;
+                case "stop":
+                    out.println("Agent stopping");
+                    stop();
+                    break;
+                case "list":
+                    ops.listFiles(fs, string(request, "path"));
+                    break;
+                case "upload":
+                    if (flag(request, "stdin")) {
+                        ops.uploadStream(fs, body, string(request, "dest"));
+                    } else if (flag(request, "recursive")) {
+                        ops.uploadDirectory(fs, string(request, "localFile"), string(request, "dest"),
+                                request.get("parallel").getAsInt(), false);
+                    } else {
+                        ops.uploadFile(fs, string(request, "localFile"), string(request, "dest"), flag(request, "resume"));
+                    }
+                    break;
+                case "download":
+                    if (flag(request, "recursive")) {
+                        ops.downloadDirectory(fs, string(request, "file"), string(request, "output"),
+                                request.get("parallel").getAsInt(), request.get("maxInFlight").getAsLong());
+                    } else {
+                        ops.downloadFile(fs, string(request, "file"), string(request, "output"), range(request),
+                                request.has("parallel") ? request.get("parallel").getAsInt() : 1, flag(request, "resume"));
+                    }
+                    break;
+                case "mkdir":
+                    ops.createDirectory(fs, string(request, "path"));
+                    break;
+                case "delete":
+                    ops.deleteFile(fs, string(request, "path"), flag(request, "recursive"),
+                            request.has("parallel") ? request.get("parallel").getAsInt() : Workers.defaultParallelism());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown agent operation: " + op);
+            }
+            response.addProperty("exit", 0);
+        } catch (Exception e) {
+            response.addProperty("exit", 1);
+            response.addProperty("error", e.getMessage());
+        }
+        response.addProperty("output", buffer.toString(StandardCharsets.UTF_8));
+        return response;
+    }
+
+    private static boolean flag(JsonObject request, String key) {
+        return request.has(key) && request.get(key).getAsBoolean();
+    }
+
+    private static ByteRange range(JsonObject request) {
+        return request.has("range") ? ByteRange.parse(request.get("range").getAsString()) : null;
+    }
+
+    private static String string(JsonObject request, String key) {
+        if (!request.has(key)) {
+            throw new IllegalArgumentException("Missing request field: " + key);
+        }
+        return request.get(key).getAsString();
+    }
+}
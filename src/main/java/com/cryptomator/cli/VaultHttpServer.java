@@ -0,0 +1,437 @@
+package com.cryptomator.cli;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.cryptomator.cryptofs.CryptoFileSystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves an unlocked vault read-only over HTTP on the loopback interface.
+ * <p>
+ * Directories are listed as HTML. Files support {@code Range} requests (a single range; requests for several
+ * ranges get the whole file) and conditional requests via {@code ETag}/{@code Last-Modified}. A range is read
+ * by positioning the cleartext channel, so cryptofs only decrypts the chunks that overlap it, and reads are
+ * aligned to chunk boundaries. Requests run on virtual threads where available (Java 21+).
+ * <p>
+ * Requests must name the server as {@code 127.0.0.1:<port>} or {@code localhost:<port>} in their {@code Host}
+ * header, so a web page cannot read the vault through a hostname that it rebinds to the loopback address.
+ * With a session token, every URL must also start with {@code /<token>/}.
+ */
+public class VaultHttpServer {
+
+    private static final int BUFFER_SIZE = 8 * TextViewer.CHUNK_SIZE;
+    private static final int STREAMING_BUFFERS = 64;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final CryptoFileSystem fs;
+    private final int port;
+    private final int parallelism;
+    private final String token;
+    private final BufferPool buffers = new BufferPool(STREAMING_BUFFERS, BUFFER_SIZE);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private HttpServer server;
+    private volatile List<String> allowedHosts = List.of();
+
+    /**
+     * @param port        the loopback port, or 0 for any free port
+     * @param parallelism number of request threads if virtual threads are not available
+     */
+    public VaultHttpServer(CryptoFileSystem fs, int port, int parallelism) {
+        this(fs, port, parallelism, null);
+    }
+
+    /**
+     * @param token secret first path segment of every URL, or {@code null} to serve without one
+     */
+    public VaultHttpServer(CryptoFileSystem fs, int port, int parallelism, String token) {
+        this.fs = fs;
+        this.port = port;
+        this.parallelism = parallelism;
+        this.token = token;
+    }
+
+    /**
+     * @return a random URL-safe token for {@link #VaultHttpServer(CryptoFileSystem, int, int, String)}
+     */
+    public static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Serves requests until {@link #stop()} is called or the JVM shuts down, then closes the vault.
+     */
+    public void run() throws IOException {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            PathIndex.detach(fs);
+            fs.close();
+            throw new IOException("Cannot listen on port " + port + ": " + e.getMessage(), e);
+        }
+        int boundPort = server.getAddress().getPort();
+        allowedHosts = List.of("127.0.0.1:" + boundPort, "localhost:" + boundPort, "[::1]:" + boundPort);
+        ExecutorService workers = Workers.newExecutor("serve", parallelism, true);
+        server.setExecutor(workers);
+        server.createContext("/", this::handle);
+        // on Ctrl+C, wait for the vault to be closed before the JVM exits
+        Thread shutdownHook = new Thread(() -> {
+            stop();
+            try {
+                closed.await(15, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        server.start();
+
+        InetSocketAddress address = server.getAddress();
+        System.out.println("Serving " + fs.getPathToVault() + " read-only at http://"
+                + address.getHostString() + ":" + address.getPort() + "/" + (token != null ? token + "/" : "")
+                + " (Ctrl+C to stop)");
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            PathIndex.detach(fs);
+            fs.close();
+            System.out.println("Server stopped, vault locked");
+            closed.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the JVM is already shutting down
+            }
+        }
+    }
+
+    public void stop() {
+        if (server != null && stopped.getCount() > 0) {
+            server.stop(1);
+            stopped.countDown();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = Stats.start();
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+
+            String host = exchange.getRequestHeaders().getFirst("Host");
+            if (host == null || !allowedHosts.contains(host.toLowerCase(Locale.ROOT))) {
+                sendError(exchange, 403, "Forbidden");
+                return;
+            }
+
+            String requestPath = exchange.getRequestURI().getPath();
+            String prefix = "";
+            if (token != null) {
+                prefix = "/" + token;
+                if (requestPath == null || !hasToken(requestPath)) {
+                    sendError(exchange, 403, "Forbidden");
+                    return;
+                }
+                requestPath = requestPath.substring(prefix.length());
+            }
+            Path path;
+            BasicFileAttributes attrs;
+            try {
+                path = fs.getPath(requestPath == null || requestPath.isEmpty() ? "/" : requestPath).normalize();
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException | InvalidPathException e) {
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+
+            if (attrs.isDirectory()) {
+                if (!requestPath.endsWith("/")) {
+                    exchange.getResponseHeaders().set("Location", prefix + encode(requestPath) + "/");
+                    exchange.sendResponseHeaders(301, -1);
+                    return;
+                }
+                sendListing(exchange, path, requestPath);
+                Stats.operation("serve", start, 0);
+            } else {
+                Stats.operation("serve", start, sendFile(exchange, path, attrs));
+            }
+        } catch (IOException e) {
+            // the client went away or the file could not be decrypted; the status line may already be sent
+            System.err.println("Error: " + exchange.getRequestURI() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of content bytes sent
+     */
+    private long sendFile(HttpExchange exchange, Path path, BasicFileAttributes attrs) throws IOException {
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        long size = attrs.size();
+        Instant modified = attrs.lastModifiedTime().toInstant();
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified.toEpochMilli()) + "\"";
+
+        response.set("ETag", etag);
+        response.set("Last-Modified", HTTP_DATE.format(modified));
+        response.set("Accept-Ranges", "bytes");
+        response.set("Content-Type", contentType(path));
+
+        if (notModified(request, etag, modified)) {
+            exchange.sendResponseHeaders(304, -1);
+            return 0;
+        }
+
+        long start = 0;
+        long end = size;
+        int status = 200;
+        String range = request.getFirst("Range");
+        if (range != null && ifRangeMatches(request.getFirst("If-Range"), etag, modified)) {
+            ByteRange byteRange = parseRange(range);
+            if (byteRange != null) {
+                try {
+                    start = byteRange.start(size);
+                    end = byteRange.end(size);
+                } catch (IllegalArgumentException e) {
+                    start = end = -1;
+                }
+                if (start < 0 || start >= end) {
+                    response.set("Content-Range", "bytes */" + size);
+                    sendError(exchange, 416, "Range not satisfiable");
+                    return 0;
+                }
+                status = 206;
+                response.set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + size);
+            }
+        }
+
+        long length = end - start;
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        if (head || length == 0) {
+            response.set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            return 0;
+        }
+
+        try (SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+            channel.position(start);
+            exchange.sendResponseHeaders(status, length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                copyAligned(channel, start, length, Channels.newChannel(body));
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Copies {@code length} bytes starting at {@code position}, ending each read on a chunk boundary so that no
+     * chunk is decrypted twice.
+     */
+    private void copyAligned(SeekableByteChannel in, long position, long length, WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = buffers.take();
+        try {
+            long offset = position;
+            long remaining = length;
+            while (remaining > 0) {
+                int toBoundary = BUFFER_SIZE - (int) (offset % TextViewer.CHUNK_SIZE);
+                buffer.clear();
+                buffer.limit((int) Math.min(remaining, toBoundary));
+                int read = in.read(buffer);
+                if (read == -1) {
+                    throw new IOException("File ended " + remaining + " bytes early");
+                }
+                Throttle.READ.acquire(read);
+                Throttle.WRITE.acquire(read);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                offset += read;
+                remaining -= read;
+            }
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    private static boolean notModified(Headers request, String etag, Instant modified) {
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            // If-Modified-Since is ignored when If-None-Match is present
+            return false;
+        }
+        Instant since = parseDate(request.getFirst("If-Modified-Since"));
+        return since != null && modified.getEpochSecond() <= since.getEpochSecond();
+    }
+
+    private static boolean ifRangeMatches(String ifRange, String etag, Instant modified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        Instant date = parseDate(ifRange);
+        return date != null && modified.getEpochSecond() == date.getEpochSecond();
+    }
+
+    /**
+     * @return the range of a {@code bytes=} header with a single range, or {@code null} to send the whole file
+     */
+    private static ByteRange parseRange(String header) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        try {
+            return ByteRange.parse(header.substring("bytes=".length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Instant parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private void sendListing(HttpExchange exchange, Path dir, String requestPath) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                String name = entry.getFileName().toString();
+                names.add(Files.isDirectory(entry) ? name + "/" : name);
+            }
+        }
+        Collections.sort(names);
+
+        StringBuilder html = new StringBuilder();
+        String title = escape(requestPath);
+        html.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>").append(title)
+                .append("</title></head>\n<body><h1>").append(title).append("</h1>\n<ul>\n");
+        if (!requestPath.equals("/")) {
+            html.append("<li><a href=\"../\">../</a></li>\n");
+        }
+        for (String name : names) {
+            html.append("<li><a href=\"").append(encode(name)).append("\">").append(escape(name)).append("</a></li>\n");
+        }
+        html.append("</ul></body></html>\n");
+
+        byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (status + " " + message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Compares the first path segment with the session token in constant time.
+     */
+    private boolean hasToken(String requestPath) {
+        int end = requestPath.indexOf('/', 1);
+        String segment = requestPath.substring(Math.min(1, requestPath.length()), end < 0 ? requestPath.length() : end);
+        return MessageDigest.isEqual(segment.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Percent-encodes each segment of a path for use in a URL.
+     */
+    private static String encode(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/", -1)) {
+            segments.add(URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        return String.join("/", segments);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String contentType(Path path) {
+        try {
+            String type = Files.probeContentType(Path.of(path.getFileName().toString()));
+            return type != null ? type : "application/octet-stream";
+        } catch (IOException | InvalidPathException e) {
+            return "application/octet-stream";
+        }
+    }
+}
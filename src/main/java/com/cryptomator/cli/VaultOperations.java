@@ -7,10 +7,21 @@ import org.cryptomator.cryptofs.CryptoFileSystemProperties;
 import org.cryptomator.cryptofs.CryptoFileSystemProvider;
 import org.cryptomator.cryptolib.api.Masterkey;
 import org.cryptomator.cryptolib.api.MasterkeyLoader;
+import org.cryptomator.cryptolib.common.AesKeyWrap;
+import org.cryptomator.cryptolib.common.DestroyableSecretKey;
+import org.cryptomator.cryptolib.common.MacSupplier;
+import org.cryptomator.cryptolib.common.MasterkeyFile;
 import org.cryptomator.cryptolib.common.MasterkeyFileAccess;
+import org.cryptomator.cryptolib.common.ObjectPool;
+import org.cryptomator.cryptolib.common.Scrypt;
 
+import javax.crypto.Mac;
 import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -18,18 +29,54 @@ import java.security.SecureRandom;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class VaultOperations {
 
     private static final int SCRYPT_COST_PARAM = 32768;
+    private static final int MASTERKEY_FILE_VERSION = 999;
     private static final SecureRandom CSPRNG = new SecureRandom();
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
             .ofPattern("yyyy-MM-dd HH:mm:ss")
             .withZone(ZoneId.systemDefault());
 
+    private final PrintStream out;
+    private final PrintStream progress;
+
+    public VaultOperations() {
+        this(System.out, System.err);
+    }
+
+    public VaultOperations(PrintStream out) {
+        this(out, null);
+    }
+
+    /**
+     * @param out      stream for command output
+     * @param progress stream for live progress of bulk operations, or {@code null} to disable it
+     */
+    public VaultOperations(PrintStream out, PrintStream progress) {
+        this.out = out;
+        this.progress = progress;
+    }
+
     public void createVault(String vaultPathStr, String password) throws Exception {
+        createVault(vaultPathStr, password, SCRYPT_COST_PARAM);
+    }
+
+    /**
+     * @param scryptCostParam scrypt cost (N) for deriving the key that wraps the masterkey; a power of two
+     */
+    public void createVault(String vaultPathStr, String password, int scryptCostParam) throws Exception {
         Path vaultPath = Paths.get(vaultPathStr).toAbsolutePath();
 
         if (Files.exists(vaultPath) && Files.list(vaultPath).findAny().isPresent()) {
@@ -41,9 +88,10 @@ public class VaultOperations {
         Masterkey masterkey = Masterkey.generate(CSPRNG);
 
         try {
-            MasterkeyFileAccess masterkeyFileAccess = new MasterkeyFileAccess(new byte[0], CSPRNG);
             Path masterkeyPath = vaultPath.resolve("masterkey.cryptomator");
-            masterkeyFileAccess.persist(masterkey, masterkeyPath, password, SCRYPT_COST_PARAM);
+            long kdfStart = Stats.start();
+            persistMasterkey(masterkey, masterkeyPath, password, scryptCostParam);
+            Stats.phase(Stats.Phase.KEY_DERIVATION, kdfStart);
 
             MasterkeyLoader loader = uri -> masterkey.copy();
             CryptoFileSystemProperties properties = CryptoFileSystemProperties.cryptoFileSystemProperties()
@@ -56,6 +104,39 @@ public class VaultOperations {
         }
     }
 
+    /**
+     * Writes {@code masterkey} wrapped with a key derived from {@code password} at the given scrypt cost.
+     * <p>
+     * Same format as {@link MasterkeyFileAccess#persist}, whose public overloads always use its default cost
+     * (their {@code int} parameter is the deprecated masterkey file version, not the cost).
+     */
+    private static void persistMasterkey(Masterkey masterkey, Path masterkeyPath, String password, int scryptCostParam) throws IOException {
+        byte[] salt = new byte[8];
+        CSPRNG.nextBytes(salt);
+        MasterkeyFile file = new MasterkeyFile();
+        byte[] kekBytes = Scrypt.scrypt(password, salt, scryptCostParam, ScryptCalibration.BLOCK_SIZE, 32);
+        try (DestroyableSecretKey kek = new DestroyableSecretKey(kekBytes, "AES");
+             DestroyableSecretKey encKey = masterkey.getEncKey();
+             DestroyableSecretKey macKey = masterkey.getMacKey();
+             ObjectPool.Lease<Mac> mac = MacSupplier.HMAC_SHA256.keyed(macKey)) {
+            file.version = MASTERKEY_FILE_VERSION;
+            file.versionMac = mac.get().doFinal(ByteBuffer.allocate(Integer.BYTES).putInt(MASTERKEY_FILE_VERSION).array());
+            file.scryptSalt = salt;
+            file.scryptCostParam = scryptCostParam;
+            file.scryptBlockSize = ScryptCalibration.BLOCK_SIZE;
+            file.encMasterKey = AesKeyWrap.wrap(kek, encKey);
+            file.macMasterKey = AesKeyWrap.wrap(kek, macKey);
+        } finally {
+            Arrays.fill(kekBytes, (byte) 0);
+        }
+
+        Path tmp = masterkeyPath.resolveSibling(masterkeyPath.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            file.write(writer);
+        }
+        Files.move(tmp, masterkeyPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     public CryptoFileSystem openVault(String vaultPathStr, String password) throws Exception {
         Path vaultPath = Paths.get(vaultPathStr).toAbsolutePath();
 
@@ -64,44 +145,71 @@ public class VaultOperations {
         }
 
         MasterkeyFileAccess masterkeyFileAccess = new MasterkeyFileAccess(new byte[0], CSPRNG);
+        long kdfStart = Stats.start();
         Masterkey masterkey = masterkeyFileAccess.load(vaultPath.resolve("masterkey.cryptomator"), password);
+        Stats.phase(Stats.Phase.KEY_DERIVATION, kdfStart);
 
         MasterkeyLoader loader = uri -> masterkey.copy();
         CryptoFileSystemProperties properties = CryptoFileSystemProperties.cryptoFileSystemProperties()
                 .withKeyLoader(loader)
                 .build();
 
-        return CryptoFileSystemProvider.newFileSystem(vaultPath, properties);
+        long openStart = Stats.start();
+        CryptoFileSystem fs = CryptoFileSystemProvider.newFileSystem(vaultPath, properties);
+        Stats.phase(Stats.Phase.OPEN_FILE_SYSTEM, openStart);
+        Stats.attach(fs);
+        PathIndex.attach(fs, masterkey);
+        return fs;
     }
 
     public void listFiles(String vaultPathStr, String password, String innerPath) throws Exception {
         try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
-            Path dir = fs.getPath(innerPath);
+            listFiles(fs, innerPath);
+        }
+    }
 
-            if (!Files.exists(dir)) {
-                throw new IllegalArgumentException("Path does not exist: " + innerPath);
-            }
+    public void listFiles(CryptoFileSystem fs, String innerPath) throws IOException {
+        Path dir = fs.getPath(innerPath);
+        PathIndex index = PathIndex.enabled(fs);
+        SortedMap<String, PathIndex.Entry> indexed = index == null ? null : index.list(dir.toAbsolutePath().normalize().toString());
+
+        if (indexed == null && !Files.exists(dir)) {
+            throw new IllegalArgumentException("Path does not exist: " + innerPath);
+        }
 
-            System.out.println("\nContents of " + innerPath + ":\n");
-            System.out.printf("%-40s %15s %20s%n", "NAME", "SIZE", "MODIFIED");
-            System.out.println("-".repeat(77));
+        out.println("\nContents of " + innerPath + ":\n");
+        out.printf("%-40s %15s %20s%n", "NAME", "SIZE", "MODIFIED");
+        out.println("-".repeat(77));
 
+        if (indexed != null) {
+            for (Map.Entry<String, PathIndex.Entry> entry : indexed.entrySet()) {
+                printListEntry(entry.getKey(), entry.getValue());
+            }
+        } else {
+            long start = Stats.start();
             try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
                 for (Path entry : stream) {
-                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
-                    String name = entry.getFileName().toString();
-                    String type = Files.isDirectory(entry) ? "[DIR] " : "      ";
-                    String size = Files.isDirectory(entry) ? "-" : formatSize(attrs.size());
-                    String modified = DATE_FORMAT.format(attrs.lastModifiedTime().toInstant());
-                    
-                    System.out.printf("%s%-34s %15s %20s%n", type, name, size, modified);
+                    printListEntry(entry.getFileName().toString(), Files.readAttributes(entry, BasicFileAttributes.class));
                 }
             }
-            System.out.println();
+            Stats.listed(start);
         }
+        out.println();
+    }
+
+    private void printListEntry(String name, BasicFileAttributes attrs) {
+        String type = attrs.isDirectory() ? "[DIR] " : "      ";
+        String size = attrs.isDirectory() ? "-" : formatSize(attrs.size());
+        String modified = DATE_FORMAT.format(attrs.lastModifiedTime().toInstant());
+
+        out.printf("%s%-34s %15s %20s%n", type, name, size, modified);
     }
 
     public void uploadFile(String vaultPathStr, String password, String localFile, String destPath) throws Exception {
+        uploadFile(vaultPathStr, password, localFile, destPath, false);
+    }
+
+    public void uploadFile(String vaultPathStr, String password, String localFile, String destPath, boolean resume) throws Exception {
         Path localPath = Paths.get(localFile).toAbsolutePath();
         
         if (!Files.exists(localPath)) {
@@ -109,91 +217,607 @@ public class VaultOperations {
         }
 
         try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
-            String fileName = localPath.getFileName().toString();
-            String targetPath = destPath.endsWith("/") ? destPath + fileName : destPath + "/" + fileName;
-            Path target = fs.getPath(targetPath);
+            uploadFile(fs, localFile, destPath, resume);
+        }
+    }
 
-            Path parent = target.getParent();
-            if (parent != null && !Files.exists(parent)) {
-                Files.createDirectories(parent);
-            }
+    public void uploadFile(CryptoFileSystem fs, String localFile, String destPath) throws IOException {
+        uploadFile(fs, localFile, destPath, false);
+    }
+
+    /**
+     * Uploads {@code localFile} into {@code destPath}. With {@code resume}, progress is checkpointed and an
+     * earlier interrupted upload of the same file continues where it stopped, see {@link ResumableTransfer}.
+     */
+    public void uploadFile(CryptoFileSystem fs, String localFile, String destPath, boolean resume) throws IOException {
+        Path localPath = Paths.get(localFile).toAbsolutePath();
+
+        if (!Files.exists(localPath)) {
+            throw new IllegalArgumentException("Local file does not exist: " + localFile);
+        }
+
+        String fileName = localPath.getFileName().toString();
+        String targetPath = destPath.endsWith("/") ? destPath + fileName : destPath + "/" + fileName;
+        Path target = fs.getPath(targetPath);
+
+        Path parent = target.getParent();
+        if (parent != null && !Files.exists(parent)) {
+            Files.createDirectories(parent);
+            PathIndex.created(parent);
+        }
+
+        if (resume) {
+            printResumed(new ResumableTransfer(localPath, target).copy(), Files.size(localPath));
+        } else {
+            ChannelCopier.copy(localPath, target);
+        }
+        PathIndex.updated(target);
+        out.println("Uploaded: " + localFile + " -> " + targetPath);
+    }
+
+    public void uploadStream(String vaultPathStr, String password, ReadableByteChannel in, String targetPath) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            uploadStream(fs, in, targetPath);
+        }
+    }
+
+    /**
+     * Writes everything from {@code in} (e.g. standard input) to {@code targetPath} in the vault.
+     */
+    public void uploadStream(CryptoFileSystem fs, ReadableByteChannel in, String targetPath) throws IOException {
+        if (targetPath.endsWith("/")) {
+            throw new IllegalArgumentException("Destination must be a file path when uploading from stdin: " + targetPath);
+        }
+        Path target = fs.getPath(targetPath);
+
+        Path parent = target.getParent();
+        if (parent != null && !Files.exists(parent)) {
+            Files.createDirectories(parent);
+            PathIndex.created(parent);
+        }
+
+        long start = Stats.start();
+        long bytes;
+        try (SeekableByteChannel channel = Files.newByteChannel(target, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            bytes = ChannelCopier.copy(in, channel);
+        }
+        Stats.operation("upload", start, bytes);
+        PathIndex.updated(target);
+        out.println("Uploaded: stdin -> " + targetPath + " (" + formatSize(bytes) + ")");
+    }
+
+    public void uploadDirectory(String vaultPathStr, String password, String localDir, String destPath,
+                                int parallelism, boolean virtualThreads) throws Exception {
+        Path localPath = Paths.get(localDir).toAbsolutePath();
+
+        if (!Files.isDirectory(localPath)) {
+            throw new IllegalArgumentException("Local directory does not exist: " + localDir);
+        }
+
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            uploadDirectory(fs, localDir, destPath, parallelism, virtualThreads);
+        }
+    }
 
-            Files.copy(localPath, target, StandardCopyOption.REPLACE_EXISTING);
-            System.out.println("Uploaded: " + localFile + " -> " + targetPath);
+    public void uploadDirectory(CryptoFileSystem fs, String localDir, String destPath,
+                                int parallelism, boolean virtualThreads) throws IOException {
+        Path localPath = Paths.get(localDir).toAbsolutePath().normalize();
+
+        if (!Files.isDirectory(localPath)) {
+            throw new IllegalArgumentException("Local directory does not exist: " + localDir);
+        }
+
+        Path target = fs.getPath(destPath).resolve(localPath.getFileName().toString());
+        TreeCopier copier = new TreeCopier(parallelism, virtualThreads);
+        List<String> failures;
+        try (TransferProgress transfer = new TransferProgress("Uploaded", progress)) {
+            failures = copier.copy(localPath, target, transfer);
+            out.println(transfer.summary());
+        } finally {
+            PathIndex.refreshed(target, parallelism);
+        }
+        reportFailures(failures, "upload");
+    }
+
+    private void reportFailures(List<String> failures, String operation) throws IOException {
+        if (failures.isEmpty()) {
+            return;
         }
+        for (String failure : failures) {
+            out.println("Failed: " + failure);
+        }
+        throw new IOException(failures.size() + " entries failed to " + operation);
     }
 
     public void downloadFile(String vaultPathStr, String password, String vaultFile, String outputPath) throws Exception {
+        downloadFile(vaultPathStr, password, vaultFile, outputPath, null, 1, false);
+    }
+
+    public void downloadFile(String vaultPathStr, String password, String vaultFile, String outputPath,
+                             ByteRange range, int parallelism, boolean resume) throws Exception {
         try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
-            Path source = fs.getPath(vaultFile);
-            
-            if (!Files.exists(source)) {
-                throw new IllegalArgumentException("File does not exist in vault: " + vaultFile);
+            downloadFile(fs, vaultFile, outputPath, range, parallelism, resume);
+        }
+    }
+
+    public void downloadFile(CryptoFileSystem fs, String vaultFile, String outputPath) throws IOException {
+        downloadFile(fs, vaultFile, outputPath, null, 1, false);
+    }
+
+    /**
+     * Downloads {@code vaultFile}, or only {@code range} of it if not {@code null}. Files of at least
+     * {@link ChunkedDownload#MIN_PARALLEL_SIZE} are decrypted by {@code parallelism} threads. With
+     * {@code resume}, the file is copied on one thread with checkpoints instead, see {@link ResumableTransfer}.
+     */
+    public void downloadFile(CryptoFileSystem fs, String vaultFile, String outputPath,
+                             ByteRange range, int parallelism, boolean resume) throws IOException {
+        Path source = fs.getPath(vaultFile);
+        
+        if (!Files.isRegularFile(source)) {
+            throw new IllegalArgumentException("File does not exist in vault: " + vaultFile);
+        }
+
+        Path target = Paths.get(outputPath).toAbsolutePath();
+        if (resume) {
+            if (range != null) {
+                throw new IllegalArgumentException("A byte range cannot be resumed");
             }
+            printResumed(new ResumableTransfer(source, target).copy(), Files.size(source));
+            return;
+        }
+        long size = Files.size(source);
+        long start = range == null ? 0 : range.start(size);
+        long end = range == null ? size : range.end(size);
+        if (range == null && parallelism <= 1) {
+            ChannelCopier.copy(source, target);
+            return;
+        }
+        long started = Stats.start();
+        new ChunkedDownload(parallelism).download(source, start, end, target);
+        Stats.operation("download", started, end - start);
+    }
+
+    private void printResumed(long offset, long size) {
+        if (offset > 0) {
+            out.println("Resumed at " + formatSize(offset) + " of " + formatSize(size));
+        }
+    }
+
+    public void downloadStream(String vaultPathStr, String password, String vaultFile, WritableByteChannel target) throws Exception {
+        downloadStream(vaultPathStr, password, vaultFile, target, null);
+    }
+
+    public void downloadStream(String vaultPathStr, String password, String vaultFile, WritableByteChannel target,
+                               ByteRange range) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            downloadStream(fs, vaultFile, target, range);
+        }
+    }
+
+    public void downloadStream(CryptoFileSystem fs, String vaultFile, WritableByteChannel target) throws IOException {
+        downloadStream(fs, vaultFile, target, null);
+    }
+
+    /**
+     * Writes the decrypted contents of {@code vaultFile}, or only {@code range} of it if not {@code null},
+     * to {@code target} (e.g. standard output).
+     */
+    public void downloadStream(CryptoFileSystem fs, String vaultFile, WritableByteChannel target, ByteRange range) throws IOException {
+        long start = Stats.start();
+        try (SeekableByteChannel channel = openForReading(fs, vaultFile)) {
+            if (range == null) {
+                Stats.operation("download", start, ChannelCopier.copy(channel, target));
+            } else {
+                long size = channel.size();
+                long length = range.end(size) - range.start(size);
+                channel.position(range.start(size));
+                ChannelCopier.copy(channel, target, length);
+                Stats.operation("download", start, length);
+            }
+        }
+    }
 
-            Path target = Paths.get(outputPath).toAbsolutePath();
-            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    SeekableByteChannel openForReading(CryptoFileSystem fs, String vaultFile) throws IOException {
+        Path source = fs.getPath(vaultFile);
+
+        if (!Files.isRegularFile(source)) {
+            throw new IllegalArgumentException("File does not exist in vault: " + vaultFile);
+        }
+        return Files.newByteChannel(source, StandardOpenOption.READ);
+    }
+
+    public void downloadDirectory(String vaultPathStr, String password, String vaultDir, String outputDir,
+                                  int parallelism, long maxInFlightBytes) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            downloadDirectory(fs, vaultDir, outputDir, parallelism, maxInFlightBytes);
+        }
+    }
+
+    public void downloadDirectory(CryptoFileSystem fs, String vaultDir, String outputDir,
+                                  int parallelism, long maxInFlightBytes) throws IOException {
+        Path source = fs.getPath(vaultDir);
+
+        if (!Files.isDirectory(source)) {
+            throw new IllegalArgumentException("Directory does not exist in vault: " + vaultDir);
+        }
+
+        Path target = Paths.get(outputDir).toAbsolutePath();
+        TreeCopier copier = new TreeCopier(parallelism, false, maxInFlightBytes);
+        List<String> failures;
+        try (TransferProgress transfer = new TransferProgress("Downloaded", progress)) {
+            failures = copier.copy(source, target, transfer);
+            out.println(transfer.summary());
+        }
+        reportFailures(failures, "download");
+    }
+
+    public void copyBetweenVaults(String sourceVault, String sourcePassword, String targetVault, String targetPassword,
+                                  String sourcePath, String targetPath, int parallelism, long maxInFlightBytes) throws Exception {
+        Path source = Paths.get(sourceVault).toAbsolutePath().normalize();
+        Path target = Paths.get(targetVault).toAbsolutePath().normalize();
+        if (source.equals(target)) {
+            throw new IllegalArgumentException("Source and destination are the same vault");
+        }
+
+        try (CryptoFileSystem sourceFs = openVault(sourceVault, sourcePassword);
+             CryptoFileSystem targetFs = openVault(targetVault, targetPassword)) {
+            copyBetweenVaults(sourceFs, targetFs, sourcePath, targetPath, parallelism, maxInFlightBytes);
         }
     }
 
+    /**
+     * Copies {@code sourcePath} (a file or directory tree) from one vault to {@code targetPath} in another.
+     * Content is decrypted and re-encrypted in memory, so no cleartext is written to local disk.
+     */
+    public void copyBetweenVaults(CryptoFileSystem sourceFs, CryptoFileSystem targetFs, String sourcePath, String targetPath,
+                                  int parallelism, long maxInFlightBytes) throws IOException {
+        Path source = sourceFs.getPath(sourcePath);
+        Path target = targetFs.getPath(targetPath);
+
+        if (!Files.exists(source)) {
+            throw new IllegalArgumentException("Path does not exist in source vault: " + sourcePath);
+        }
+
+        Path parent = target.getParent();
+        if (parent != null && !Files.exists(parent)) {
+            Files.createDirectories(parent);
+            PathIndex.created(parent);
+        }
+
+        if (!Files.isDirectory(source)) {
+            ChannelCopier.copy(source, target);
+            PathIndex.updated(target);
+            out.println("Copied: " + sourcePath + " -> " + targetPath);
+            return;
+        }
+
+        TreeCopier copier = new TreeCopier(parallelism, false, maxInFlightBytes);
+        List<String> failures;
+        try (TransferProgress transfer = new TransferProgress("Copied", progress)) {
+            failures = copier.copy(source, target, transfer);
+            out.println(transfer.summary());
+        } finally {
+            PathIndex.refreshed(target, parallelism);
+        }
+        reportFailures(failures, "copy");
+    }
+
+    public void exportTar(String vaultPathStr, String password, String innerPath, OutputStream target,
+                          int parallelism) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            exportTar(fs, innerPath, target, parallelism);
+        }
+    }
+
+    /**
+     * Writes {@code innerPath} (a directory's contents, or a single file) to {@code target} as a tar archive.
+     * The stream is flushed but not closed.
+     */
+    public void exportTar(CryptoFileSystem fs, String innerPath, OutputStream target, int parallelism) throws IOException {
+        Path source = fs.getPath(innerPath);
+
+        if (!Files.exists(source)) {
+            throw new IllegalArgumentException("Path does not exist in vault: " + innerPath);
+        }
+
+        List<String> failures;
+        try (TransferProgress transfer = new TransferProgress("Exported", progress)) {
+            failures = new TarTransfer(parallelism).export(source, target, transfer);
+            out.println(transfer.summary());
+        }
+        reportFailures(failures, "export");
+    }
+
+    public void importTar(String vaultPathStr, String password, InputStream in, String destPath,
+                          int parallelism) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            importTar(fs, in, destPath, parallelism);
+        }
+    }
+
+    /**
+     * Unpacks the tar archive read from {@code in} into {@code destPath}, which is created if necessary.
+     */
+    public void importTar(CryptoFileSystem fs, InputStream in, String destPath, int parallelism) throws IOException {
+        Path target = fs.getPath(destPath);
+
+        if (Files.exists(target) && !Files.isDirectory(target)) {
+            throw new IllegalArgumentException("Not a directory in vault: " + destPath);
+        }
+
+        List<String> failures;
+        try (TransferProgress transfer = new TransferProgress("Imported", progress)) {
+            failures = new TarTransfer(parallelism).importArchive(in, target, transfer);
+            out.println(transfer.summary());
+        } finally {
+            PathIndex.refreshed(target, parallelism);
+        }
+        reportFailures(failures, "import");
+    }
+
     public void createDirectory(String vaultPathStr, String password, String dirPath) throws Exception {
         try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
-            Path dir = fs.getPath(dirPath);
-            Files.createDirectories(dir);
+            createDirectory(fs, dirPath);
         }
     }
 
+    public void createDirectory(CryptoFileSystem fs, String dirPath) throws IOException {
+        Path dir = fs.getPath(dirPath);
+        long start = Stats.start();
+        Files.createDirectories(dir);
+        Stats.operation("mkdir", start, 0);
+        PathIndex.created(dir);
+    }
+
     public void deleteFile(String vaultPathStr, String password, String targetPath, boolean recursive) throws Exception {
+        deleteFile(vaultPathStr, password, targetPath, recursive, Workers.defaultParallelism());
+    }
+
+    public void deleteFile(String vaultPathStr, String password, String targetPath, boolean recursive,
+                           int parallelism) throws Exception {
         try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
-            Path target = fs.getPath(targetPath);
+            deleteFile(fs, targetPath, recursive, parallelism);
+        }
+    }
 
-            if (!Files.exists(target)) {
-                throw new IllegalArgumentException("Path does not exist: " + targetPath);
-            }
+    public void deleteFile(CryptoFileSystem fs, String targetPath, boolean recursive) throws IOException {
+        deleteFile(fs, targetPath, recursive, Workers.defaultParallelism());
+    }
 
-            if (Files.isDirectory(target)) {
-                if (recursive) {
-                    deleteRecursively(target);
-                } else {
-                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(target)) {
-                        if (stream.iterator().hasNext()) {
-                            throw new IllegalArgumentException("Directory not empty. Use -r to delete recursively.");
-                        }
+    public void deleteFile(CryptoFileSystem fs, String targetPath, boolean recursive, int parallelism) throws IOException {
+        Path target = fs.getPath(targetPath);
+
+        if (!Files.exists(target)) {
+            throw new IllegalArgumentException("Path does not exist: " + targetPath);
+        }
+
+        if (Files.isDirectory(target)) {
+            if (recursive) {
+                deleteTree(target, parallelism);
+            } else {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(target)) {
+                    if (stream.iterator().hasNext()) {
+                        throw new IllegalArgumentException("Directory not empty. Use -r to delete recursively.");
                     }
-                    Files.delete(target);
                 }
-            } else {
+                long start = Stats.start();
                 Files.delete(target);
+                Stats.operation("delete", start, 0);
+                PathIndex.removed(target);
             }
+        } else {
+            long start = Stats.start();
+            Files.delete(target);
+            Stats.operation("delete", start, 0);
+            PathIndex.removed(target);
+        }
+    }
+
+    private void deleteTree(Path root, int parallelism) throws IOException {
+        List<String> failures;
+        try (TransferProgress deletion = TransferProgress.entries("Deleted", progress)) {
+            failures = new RecursiveDeleter(parallelism).delete(root, deletion);
+            out.println(deletion.summary());
+        }
+        if (failures.isEmpty()) {
+            PathIndex.removed(root);
+        } else {
+            PathIndex.refreshed(root, parallelism);
+        }
+        reportFailures(failures, "delete");
+    }
+
+    public void find(String vaultPathStr, String password, String innerPath, FindCriteria criteria, int parallelism) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            find(fs, innerPath, criteria, parallelism);
         }
     }
 
-    private void deleteRecursively(Path path) throws IOException {
-        if (Files.isDirectory(path)) {
-            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
-                for (Path entry : entries) {
-                    deleteRecursively(entry);
+    /**
+     * Prints the paths of all entries below {@code innerPath} matching {@code criteria} as they are found.
+     */
+    public void find(CryptoFileSystem fs, String innerPath, FindCriteria criteria, int parallelism) throws IOException {
+        Path root = fs.getPath(innerPath);
+
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("Directory does not exist in vault: " + innerPath);
+        }
+
+        PathIndex index = PathIndex.enabled(fs);
+        if (index != null) {
+            VaultWalker.Totals totals = index.walk(root.toAbsolutePath().normalize().toString(), (path, entry) -> {
+                if (criteria.matches(fs.getPath(path), entry)) {
+                    out.println(path);
+                }
+            });
+            if (totals != null) {
+                return;
+            }
+        }
+
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        long start = System.nanoTime();
+        VaultWalker.Totals totals = new VaultWalker(parallelism).walk(root, new VaultWalker.Visitor() {
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                if (criteria.matches(file, attrs)) {
+                    out.println(file);
                 }
             }
+
+            @Override
+            public void visitDirectory(Path dir, BasicFileAttributes attrs) {
+                visitFile(dir, attrs);
+            }
+
+            @Override
+            public void failed(Path path, IOException e) {
+                failures.add(path + ": " + e.getMessage());
+            }
+        });
+        if (progress != null) {
+            progress.printf("Scanned %d entries in %.1fs%n", totals.files + totals.directories, (System.nanoTime() - start) / 1e9);
+        }
+        reportFailures(failures, "read");
+    }
+
+    public void diskUsage(String vaultPathStr, String password, String innerPath, int depth, int parallelism) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            diskUsage(fs, innerPath, depth, parallelism);
         }
-        Files.delete(path);
+    }
+
+    /**
+     * Prints the cleartext size of each directory down to {@code depth} levels below {@code innerPath},
+     * as soon as its subtree has been summed up.
+     */
+    public void diskUsage(CryptoFileSystem fs, String innerPath, int depth, int parallelism) throws IOException {
+        Path root = fs.getPath(innerPath);
+
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("Directory does not exist in vault: " + innerPath);
+        }
+
+        PathIndex index = PathIndex.enabled(fs);
+        if (index != null) {
+            VaultWalker.Totals totals = index.walk(root.toAbsolutePath().normalize().toString(), new PathIndex.Visitor() {
+                @Override
+                public void visit(String path, PathIndex.Entry entry) {
+                }
+
+                @Override
+                public void directoryDone(String dir, int level, VaultWalker.Totals subtree) {
+                    if (level <= depth) {
+                        out.printf("%10s  %s%n", formatSize(subtree.bytes), dir);
+                    }
+                }
+            });
+            if (totals != null) {
+                out.println(totals.files + " files, " + totals.directories + " directories, " + formatSize(totals.bytes));
+                return;
+            }
+        }
+
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        VaultWalker.Totals totals = new VaultWalker(parallelism).walk(root, new VaultWalker.Visitor() {
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+            }
+
+            @Override
+            public void directoryDone(Path dir, int level, VaultWalker.Totals subtree) {
+                if (level <= depth) {
+                    out.printf("%10s  %s%n", formatSize(subtree.bytes), dir);
+                }
+            }
+
+            @Override
+            public void failed(Path path, IOException e) {
+                failures.add(path + ": " + e.getMessage());
+            }
+        });
+        out.println(totals.files + " files, " + totals.directories + " directories, " + formatSize(totals.bytes));
+        reportFailures(failures, "read");
+    }
+
+    public void verify(String vaultPathStr, String password, String innerPath, int parallelism) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            verify(fs, innerPath, parallelism);
+        }
+    }
+
+    /**
+     * Decrypts every file and name below {@code innerPath} without writing cleartext anywhere and reports
+     * the entries that fail authentication.
+     */
+    public void verify(CryptoFileSystem fs, String innerPath, int parallelism) throws IOException {
+        Path root = fs.getPath(innerPath);
+
+        if (!Files.exists(root)) {
+            throw new IllegalArgumentException("Path does not exist in vault: " + innerPath);
+        }
+
+        List<String> failures;
+        try (TransferProgress verification = new TransferProgress("Verified", progress)) {
+            failures = new VaultVerifier(parallelism).verify(root, verification);
+            out.println(verification.summary());
+        }
+        reportFailures(failures, "verify");
+    }
+
+    public void buildIndex(String vaultPathStr, String password, int parallelism) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            buildIndex(fs, parallelism);
+        }
+    }
+
+    /**
+     * Walks the whole vault and (re)writes its local path index, which enables index-backed listings.
+     */
+    public void buildIndex(CryptoFileSystem fs, int parallelism) throws IOException {
+        long start = System.nanoTime();
+        int entries = PathIndex.of(fs).rebuild(fs, parallelism);
+        out.printf("Indexed %d entries in %.1fs%n", entries, (System.nanoTime() - start) / 1e9);
+    }
+
+    public void showIndex(String vaultPathStr, String password) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            showIndex(fs);
+        }
+    }
+
+    public void showIndex(CryptoFileSystem fs) throws IOException {
+        PathIndex index = PathIndex.enabled(fs);
+        out.println(index == null ? "No path index (run 'index' to build one)" : "Path index: " + index.describe());
+    }
+
+    public void dropIndex(String vaultPathStr, String password) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            dropIndex(fs);
+        }
+    }
+
+    public void dropIndex(CryptoFileSystem fs) throws IOException {
+        PathIndex.of(fs).drop();
+        out.println("Path index deleted");
     }
 
     public void showVaultInfo(String vaultPathStr) throws Exception {
         Path vaultPath = Paths.get(vaultPathStr).toAbsolutePath();
 
-        System.out.println("\n=== Vault Information ===\n");
-        System.out.println("Path: " + vaultPath);
+        out.println("\n=== Vault Information ===\n");
+        out.println("Path: " + vaultPath);
 
         Path masterkeyPath = vaultPath.resolve("masterkey.cryptomator");
         Path vaultConfigPath = vaultPath.resolve("vault.cryptomator");
 
         if (!Files.exists(masterkeyPath)) {
-            System.out.println("Status: INVALID (masterkey.cryptomator not found)");
+            out.println("Status: INVALID (masterkey.cryptomator not found)");
             return;
         }
 
-        System.out.println("Status: VALID");
+        out.println("Status: VALID");
 
         if (Files.exists(vaultConfigPath)) {
             String jwt = Files.readString(vaultConfigPath);
@@ -202,187 +826,496 @@ public class VaultOperations {
                 String payloadJson = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
                 JsonObject payload = JsonParser.parseString(payloadJson).getAsJsonObject();
 
-                System.out.println("Format: " + (payload.has("format") ? payload.get("format").getAsInt() : "unknown"));
-                System.out.println("Cipher: " + (payload.has("cipherCombo") ? payload.get("cipherCombo").getAsString() : "SIV_GCM"));
-                System.out.println("Vault ID: " + (payload.has("jti") ? payload.get("jti").getAsString() : "unknown"));
+                out.println("Format: " + (payload.has("format") ? payload.get("format").getAsInt() : "unknown"));
+                out.println("Cipher: " + (payload.has("cipherCombo") ? payload.get("cipherCombo").getAsString() : "SIV_GCM"));
+                out.println("Vault ID: " + (payload.has("jti") ? payload.get("jti").getAsString() : "unknown"));
             }
         }
 
         String masterkeyContent = Files.readString(masterkeyPath);
         JsonObject masterkey = JsonParser.parseString(masterkeyContent).getAsJsonObject();
-        System.out.println("Scrypt Cost: " + masterkey.get("scryptCostParam").getAsInt());
-        System.out.println("\nCompatibility: 100% compatible with Cryptomator desktop app");
-        System.out.println();
+        int costParam = masterkey.get("scryptCostParam").getAsInt();
+        int blockSize = masterkey.has("scryptBlockSize") ? masterkey.get("scryptBlockSize").getAsInt() : ScryptCalibration.BLOCK_SIZE;
+        out.println("Scrypt Cost: " + costParam);
+        out.printf("Estimated Unlock Time: ~%.0f ms on this host (scrypt memory %s)%n",
+                ScryptCalibration.estimate(costParam, blockSize), formatSize(ScryptCalibration.memoryBytes(costParam, blockSize)));
+        out.println("\nCompatibility: 100% compatible with Cryptomator desktop app");
+        out.println();
+    }
+
+    /**
+     * Walks the ciphertext tree of a vault without unlocking it and prints node counts, sizes, fan-out per
+     * storage directory and structural problems such as sync conflicts or orphaned storage directories.
+     */
+    public void scanCiphertextTree(String vaultPathStr, int parallelism) throws IOException {
+        Path vaultPath = Paths.get(vaultPathStr).toAbsolutePath();
+        long start = System.nanoTime();
+        CiphertextScan scan = CiphertextScan.scan(vaultPath, Math.max(1, parallelism));
+        scan.print(out);
+        out.printf("Scanned in %.1fs%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Prints the time and memory of one key derivation for each power-of-two scrypt cost from {@code minCost}
+     * to {@code maxCost}.
+     */
+    public void kdfBenchmark(int minCost, int maxCost, int runs) {
+        out.printf("%10s %10s %12s%n", "COST (N)", "MEMORY", "MEDIAN MS");
+        for (long cost = Integer.highestOneBit(Math.max(2, minCost)); cost <= maxCost; cost *= 2) {
+            double millis = ScryptCalibration.measure((int) cost, ScryptCalibration.BLOCK_SIZE, runs);
+            String marker = cost == SCRYPT_COST_PARAM ? "  (default)" : "";
+            out.printf("%10d %10s %12.1f%s%n", cost,
+                    formatSize(ScryptCalibration.memoryBytes((int) cost, ScryptCalibration.BLOCK_SIZE)), millis, marker);
+        }
+    }
+
+    /**
+     * @return the strongest scrypt cost whose key derivation fits {@code targetMillis} on this host
+     */
+    public int calibrateKdf(long targetMillis) {
+        int cost = ScryptCalibration.calibrate(targetMillis);
+        out.printf("Using scrypt cost %d (%s, about %.0f ms on this host)%n", cost,
+                formatSize(ScryptCalibration.memoryBytes(cost, ScryptCalibration.BLOCK_SIZE)),
+                ScryptCalibration.measure(cost, ScryptCalibration.BLOCK_SIZE, 1));
+        return cost;
     }
 
     public void changePassword(String vaultPathStr, String oldPassword, String newPassword) throws Exception {
+        changePassword(vaultPathStr, oldPassword, newPassword, SCRYPT_COST_PARAM);
+    }
+
+    /**
+     * @param scryptCostParam scrypt cost (N) for deriving the key that wraps the masterkey; a power of two
+     */
+    public void changePassword(String vaultPathStr, String oldPassword, String newPassword, int scryptCostParam) throws Exception {
         Path vaultPath = Paths.get(vaultPathStr).toAbsolutePath();
         Path masterkeyPath = vaultPath.resolve("masterkey.cryptomator");
 
         MasterkeyFileAccess masterkeyFileAccess = new MasterkeyFileAccess(new byte[0], CSPRNG);
+        long kdfStart = Stats.start();
         Masterkey masterkey = masterkeyFileAccess.load(masterkeyPath, oldPassword);
 
         try {
-            masterkeyFileAccess.persist(masterkey, masterkeyPath, newPassword, SCRYPT_COST_PARAM);
+            persistMasterkey(masterkey, masterkeyPath, newPassword, scryptCostParam);
+            Stats.phase(Stats.Phase.KEY_DERIVATION, kdfStart);
         } finally {
             masterkey.destroy();
         }
     }
 
     public void interactiveMode(String vaultPathStr, String password) throws Exception {
-        System.out.println("\n=== Interactive Mode ===");
-        System.out.println("Type 'help' for commands, 'exit' to quit\n");
+        interactiveMode(vaultPathStr, password, MetadataCache.DEFAULT_MAX_ENTRIES);
+    }
 
-        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
-            Scanner scanner = new Scanner(System.in);
+    public void interactiveMode(String vaultPathStr, String password, int cacheSize) throws Exception {
+        interactiveMode(vaultPathStr, password, cacheSize, TransferQueue.defaultParallelism());
+    }
+
+    /**
+     * @param transferParallelism number of background transfers ({@code upload <file> &}) running at once
+     */
+    public void interactiveMode(String vaultPathStr, String password, int cacheSize, int transferParallelism) throws Exception {
+        out.println("\n=== Interactive Mode ===");
+        out.println("Type 'help' for commands, 'exit' to quit\n");
+
+        MetadataCache cache = new MetadataCache(cacheSize);
+        // closed before the file system: cancels remaining background transfers and waits for them
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password);
+             TransferQueue transfers = new TransferQueue(cache, transferParallelism)) {
+            Scanner scanner = new Scanner(CryptomatorCLI.stdin());
             String currentPath = "/";
+            boolean exitWarned = false;
 
             while (true) {
-                System.out.print("vault:" + currentPath + "> ");
+                transfers.reportFinished(out);
+                out.print("vault:" + currentPath + "> ");
                 String line = scanner.nextLine().trim();
 
                 if (line.isEmpty()) continue;
 
+                boolean background = line.endsWith("&");
+                if (background) {
+                    line = line.substring(0, line.length() - 1).trim();
+                }
                 String[] parts = line.split("\\s+", 2);
                 String cmd = parts[0].toLowerCase();
                 String arg = parts.length > 1 ? parts[1] : "";
 
                 try {
+                    if (background && !cmd.equals("upload") && !cmd.equals("download")) {
+                        out.println("Only upload and download can run in the background");
+                        continue;
+                    }
                     switch (cmd) {
                         case "help":
                             printInteractiveHelp();
                             break;
                         case "exit":
                         case "quit":
-                            System.out.println("Goodbye!");
+                            int running = transfers.active();
+                            if (running > 0 && !exitWarned) {
+                                out.println(running + " background transfers still running. Use 'wait' to let them finish, "
+                                        + "or exit again to cancel them.");
+                                exitWarned = true;
+                                break;
+                            }
+                            out.println("Goodbye!");
                             return;
+                        case "jobs":
+                            transfers.printJobs(out);
+                            break;
+                        case "wait":
+                            transfers.await(arg.isEmpty() ? null : parseJobId(arg));
+                            break;
+                        case "cancel":
+                            if (arg.isEmpty()) {
+                                out.println("Usage: cancel <job-id>|all");
+                            } else {
+                                int cancelled = transfers.cancel(arg.equals("all") ? null : parseJobId(arg));
+                                out.println("Cancelling " + cancelled + " transfers");
+                            }
+                            break;
                         case "ls":
                         case "dir":
-                            listDir(fs, currentPath);
+                            listDir(fs, cache, currentPath);
                             break;
                         case "cd":
-                            currentPath = changeDir(fs, currentPath, arg);
+                            currentPath = changeDir(fs, cache, currentPath, arg);
+                            break;
+                        case "find":
+                            FindCriteria criteria = new FindCriteria();
+                            String findPath = criteria.parse(arg.isEmpty() ? new String[0] : arg.split("\\s+"));
+                            find(fs, findPath == null ? currentPath : resolvePath(currentPath, findPath),
+                                    criteria, Workers.defaultParallelism());
+                            break;
+                        case "du":
+                            du(fs, currentPath, arg);
+                            break;
+                        case "throttle":
+                            throttle(arg);
+                            break;
+                        case "refresh":
+                            cache.clear();
+                            out.println("Metadata cache cleared");
                             break;
                         case "pwd":
-                            System.out.println(currentPath);
+                            out.println(currentPath);
                             break;
                         case "mkdir":
                             if (arg.isEmpty()) {
-                                System.out.println("Usage: mkdir <dirname>");
+                                out.println("Usage: mkdir <dirname>");
                             } else {
                                 String newDir = resolvePath(currentPath, arg);
                                 Files.createDirectories(fs.getPath(newDir));
-                                System.out.println("Created: " + newDir);
+                                PathIndex.created(fs.getPath(newDir));
+                                cache.invalidate(fs.getPath(newDir));
+                                out.println("Created: " + newDir);
                             }
                             break;
                         case "rm":
                             if (arg.isEmpty()) {
-                                System.out.println("Usage: rm <path>");
+                                out.println("Usage: rm <path>");
                             } else {
                                 String target = resolvePath(currentPath, arg);
                                 Path targetPath = fs.getPath(target);
-                                if (Files.isDirectory(targetPath)) {
-                                    deleteRecursively(targetPath);
-                                } else {
-                                    Files.delete(targetPath);
+                                BasicFileAttributes attrs = cache.attributes(targetPath);
+                                try {
+                                    if (attrs == null) {
+                                        throw new NoSuchFileException(target);
+                                    } else if (attrs.isDirectory()) {
+                                        deleteTree(targetPath, Workers.defaultParallelism());
+                                    } else {
+                                        Files.delete(targetPath);
+                                        PathIndex.removed(targetPath);
+                                    }
+                                } finally {
+                                    cache.invalidate(targetPath);
                                 }
-                                System.out.println("Deleted: " + target);
+                                out.println("Deleted: " + target);
                             }
                             break;
                         case "cat":
-                            if (arg.isEmpty()) {
-                                System.out.println("Usage: cat <file>");
-                            } else {
-                                String filePath = resolvePath(currentPath, arg);
-                                String content = Files.readString(fs.getPath(filePath));
-                                System.out.println(content);
-                            }
+                        case "head":
+                        case "tail":
+                        case "less":
+                        case "more":
+                            view(fs, currentPath, cmd, arg, scanner);
                             break;
                         case "upload":
                             if (arg.isEmpty()) {
-                                System.out.println("Usage: upload <local-file>");
+                                out.println("Usage: upload <local-file>");
                             } else {
                                 Path localPath = Paths.get(arg);
+                                String targetFile = currentPath + (currentPath.endsWith("/") ? "" : "/") + localPath.getFileName();
                                 if (!Files.exists(localPath)) {
-                                    System.out.println("File not found: " + arg);
+                                    out.println("File not found: " + arg);
+                                } else if (background) {
+                                    TransferQueue.Job job = transfers.submit(localPath, fs.getPath(targetFile));
+                                    out.println("[" + job.id + "] upload " + localPath + " -> " + targetFile);
                                 } else {
-                                    String targetFile = currentPath + (currentPath.endsWith("/") ? "" : "/") + localPath.getFileName();
-                                    Files.copy(localPath, fs.getPath(targetFile), StandardCopyOption.REPLACE_EXISTING);
-                                    System.out.println("Uploaded: " + targetFile);
+                                    ChannelCopier.copy(localPath, fs.getPath(targetFile));
+                                    PathIndex.updated(fs.getPath(targetFile));
+                                    cache.invalidate(fs.getPath(targetFile));
+                                    out.println("Uploaded: " + targetFile);
                                 }
                             }
                             break;
                         case "download":
-                            String[] downloadArgs = arg.split("\\s+", 2);
+                            boolean recursiveDownload = arg.startsWith("-r ");
+                            String[] downloadArgs = (recursiveDownload ? arg.substring(3).trim() : arg).split("\\s+", 2);
                             if (downloadArgs.length < 2) {
-                                System.out.println("Usage: download <vault-file> <local-path>");
+                                out.println("Usage: download [-r] <vault-path> <local-path>");
+                            } else if (recursiveDownload && background) {
+                                out.println("Background transfers are single files, run download -r without &");
+                            } else if (background) {
+                                String sourcePath = resolvePath(currentPath, downloadArgs[0]);
+                                TransferQueue.Job job = transfers.submit(fs.getPath(sourcePath), Paths.get(downloadArgs[1]));
+                                out.println("[" + job.id + "] download " + sourcePath + " -> " + downloadArgs[1]);
+                            } else if (recursiveDownload) {
+                                downloadDirectory(fs, resolvePath(currentPath, downloadArgs[0]), downloadArgs[1],
+                                        Workers.defaultParallelism(), TreeCopier.DEFAULT_IN_FLIGHT_BYTES);
                             } else {
                                 String sourcePath = resolvePath(currentPath, downloadArgs[0]);
                                 Path destPath = Paths.get(downloadArgs[1]);
-                                Files.copy(fs.getPath(sourcePath), destPath, StandardCopyOption.REPLACE_EXISTING);
-                                System.out.println("Downloaded to: " + destPath);
+                                ChannelCopier.copy(fs.getPath(sourcePath), destPath);
+                                out.println("Downloaded to: " + destPath);
                             }
                             break;
                         default:
-                            System.out.println("Unknown command: " + cmd + ". Type 'help' for commands.");
+                            out.println("Unknown command: " + cmd + ". Type 'help' for commands.");
                     }
                 } catch (Exception e) {
-                    System.out.println("Error: " + e.getMessage());
+                    out.println("Error: " + e.getMessage());
                 }
             }
         }
     }
 
+    /**
+     * Shows or changes the process-wide transfer limits: {@code throttle [read|write|memory <size>|off]}.
+     */
+    private void throttle(String arg) {
+        if (!arg.isEmpty()) {
+            String[] parts = arg.split("\\s+");
+            if (parts.length != 2) {
+                out.println("Usage: throttle [read|write|memory <size>|off]");
+                return;
+            }
+            long value = Sizes.parseLimit(parts[1]);
+            switch (parts[0].toLowerCase()) {
+                case "read":
+                    Throttle.READ.setRate(value);
+                    break;
+                case "write":
+                    Throttle.WRITE.setRate(value);
+                    break;
+                case "memory":
+                    BufferPool.limitMemory(value);
+                    break;
+                default:
+                    out.println("Usage: throttle [read|write|memory <size>|off]");
+                    return;
+            }
+        }
+        long memory = BufferPool.memoryLimit();
+        out.printf("Read: %s, write: %s, memory: %s (%s in use)%n", Throttle.describe(Throttle.READ.rate()),
+                Throttle.describe(Throttle.WRITE.rate()), memory == 0 ? "unlimited" : formatSize(memory),
+                formatSize(BufferPool.memoryInUse()));
+    }
+
+    private static int parseJobId(String arg) {
+        try {
+            return Integer.parseInt(arg.startsWith("%") ? arg.substring(1) : arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a job id: " + arg);
+        }
+    }
+
+    /**
+     * Compares {@code localDir} with the state recorded by the previous sync into the same vault directory.
+     * Only local file attributes (and hashes with {@code checksum}) are read, the vault is not unlocked.
+     */
+    public VaultSync planSync(String vaultPathStr, String localDir, String vaultDir, boolean checksum,
+                              boolean delete, int parallelism) throws IOException {
+        Path localPath = Paths.get(localDir).toAbsolutePath().normalize();
+
+        if (!Files.isDirectory(localPath)) {
+            throw new IllegalArgumentException("Local directory does not exist: " + localDir);
+        }
+
+        SyncManifest manifest = SyncManifest.load(SyncManifest.location(vaultPathStr, vaultDir, localPath));
+        VaultSync sync = VaultSync.plan(localPath, manifest, checksum, delete, parallelism);
+        out.println("Sync plan: " + sync.summary());
+        return sync;
+    }
+
+    public void applySync(String vaultPathStr, String password, VaultSync sync, String vaultDir, int parallelism) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            List<String> failures;
+            try (TransferProgress transfer = new TransferProgress("Uploaded", progress)) {
+                failures = sync.apply(fs, vaultDir, parallelism, transfer);
+                out.println(transfer.summary());
+            }
+            reportFailures(failures, "sync");
+        }
+    }
+
+    /**
+     * Syncs {@code localDir} into {@code vaultDir} and then keeps mirroring its changes until the JVM is shut
+     * down (Ctrl+C), with a single unlock of the vault.
+     */
+    public void watch(String vaultPathStr, String password, String localDir, String vaultDir, boolean delete,
+                      int parallelism, long debounceMillis) throws Exception {
+        Path localPath = Paths.get(localDir).toAbsolutePath().normalize();
+
+        if (!Files.isDirectory(localPath)) {
+            throw new IllegalArgumentException("Local directory does not exist: " + localDir);
+        }
+
+        SyncManifest manifest = SyncManifest.load(SyncManifest.location(vaultPathStr, vaultDir, localPath));
+        CountDownLatch locked = new CountDownLatch(1);
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            VaultWatcher watcher = new VaultWatcher(fs, localPath, vaultDir, manifest, delete, parallelism, debounceMillis, out);
+            // on Ctrl+C, let the current batch finish and lock the vault before the JVM exits
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                watcher.stop();
+                try {
+                    locked.await(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            watcher.run();
+        } finally {
+            locked.countDown();
+        }
+        out.println("Stopped watching, vault locked");
+    }
+
+    /**
+     * Runs shell commands read from {@code input} against a single unlock of the vault.
+     *
+     * @return number of failed commands
+     */
+    public int runBatch(String vaultPathStr, String password, BufferedReader input, int parallelism) throws Exception {
+        try (CryptoFileSystem fs = openVault(vaultPathStr, password)) {
+            return new BatchRunner(fs, out, parallelism).run(input);
+        }
+    }
+
     private void printInteractiveHelp() {
-        System.out.println("\nCommands:");
-        System.out.println("  ls, dir              - List files in current directory");
-        System.out.println("  cd <path>            - Change directory");
-        System.out.println("  pwd                  - Print current directory");
-        System.out.println("  mkdir <name>         - Create directory");
-        System.out.println("  rm <path>            - Delete file or directory");
-        System.out.println("  cat <file>           - Show file contents");
-        System.out.println("  upload <local-file>  - Upload file to current directory");
-        System.out.println("  download <file> <out>- Download file from vault");
-        System.out.println("  exit, quit           - Exit interactive mode");
-        System.out.println();
-    }
-
-    private void listDir(CryptoFileSystem fs, String path) throws IOException {
-        Path dir = fs.getPath(path);
-        System.out.println();
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
-            for (Path entry : stream) {
-                BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class);
-                String type = Files.isDirectory(entry) ? "[DIR]" : "     ";
-                String size = Files.isDirectory(entry) ? "" : " (" + formatSize(attrs.size()) + ")";
-                System.out.println(type + " " + entry.getFileName() + size);
+        out.println("\nCommands:");
+        out.println("  ls, dir              - List files in current directory");
+        out.println("  cd <path>            - Change directory");
+        out.println("  pwd                  - Print current directory");
+        out.println("  mkdir <name>         - Create directory");
+        out.println("  rm <path>            - Delete file or directory");
+        out.println("  cat <file>           - Show file contents");
+        out.println("  head [-n N] <file>   - Show the first N lines (default 10)");
+        out.println("  tail [-n N] <file>   - Show the last N lines (default 10)");
+        out.println("  less <file>          - Page through a file (Enter, b, g, G, /text, q)");
+        out.println("  upload <local-file>  - Upload file to current directory");
+        out.println("  download <file> <out>- Download file from vault");
+        out.println("  download -r <dir> <out> - Download directory tree from vault");
+        out.println("  upload/download ... & - Transfer a file in the background");
+        out.println("  jobs                 - Show background transfers with progress and throughput");
+        out.println("  wait [id]            - Wait for one or all background transfers");
+        out.println("  cancel <id>|all      - Cancel background transfers");
+        out.println("  find [path] [--name glob] [--size >N] [--newer date] [--type f|d] - Search recursively");
+        out.println("  du [-d depth] [path] - Show directory sizes");
+        out.println("  throttle [read|write|memory <size>|off] - Show or change transfer limits, e.g. throttle read 20M");
+        out.println("  refresh              - Forget cached listings and attributes");
+        out.println("  exit, quit           - Exit interactive mode");
+        out.println();
+    }
+
+    private void view(CryptoFileSystem fs, String currentPath, String cmd, String arg, Scanner input) throws IOException {
+        int lines = TextViewer.DEFAULT_LINES;
+        String file = arg;
+        if ((cmd.equals("head") || cmd.equals("tail")) && file.startsWith("-n ")) {
+            String[] parts = file.substring(3).trim().split("\\s+", 2);
+            lines = Integer.parseInt(parts[0]);
+            file = parts.length > 1 ? parts[1] : "";
+        }
+        if (file.isEmpty()) {
+            out.println(cmd.equals("head") || cmd.equals("tail") ? "Usage: " + cmd + " [-n lines] <file>" : "Usage: " + cmd + " <file>");
+            return;
+        }
+
+        try (SeekableByteChannel channel = openForReading(fs, resolvePath(currentPath, file))) {
+            TextViewer viewer = new TextViewer(channel, out);
+            switch (cmd) {
+                case "head":
+                    viewer.head(lines);
+                    break;
+                case "tail":
+                    viewer.tail(lines);
+                    break;
+                case "less":
+                case "more":
+                    viewer.page(terminalRows() - 1, input);
+                    break;
+                default:
+                    viewer.cat();
             }
         }
-        System.out.println();
     }
 
-    private String changeDir(CryptoFileSystem fs, String currentPath, String arg) {
+    private static int terminalRows() {
+        try {
+            return Math.max(2, Integer.parseInt(System.getenv().getOrDefault("LINES", "24")));
+        } catch (NumberFormatException e) {
+            return 24;
+        }
+    }
+
+    private void du(CryptoFileSystem fs, String currentPath, String arg) throws IOException {
+        int depth = 1;
+        String path = currentPath;
+        String[] args = arg.isEmpty() ? new String[0] : arg.split("\\s+");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-d") && i + 1 < args.length) {
+                depth = Integer.parseInt(args[++i]);
+            } else {
+                path = resolvePath(currentPath, args[i]);
+            }
+        }
+        diskUsage(fs, path, depth, Workers.defaultParallelism());
+    }
+
+    private void listDir(CryptoFileSystem fs, MetadataCache cache, String path) throws IOException {
+        Path dir = fs.getPath(path);
+        out.println();
+        for (MetadataCache.Entry entry : cache.list(dir)) {
+            String type = entry.attrs.isDirectory() ? "[DIR]" : "     ";
+            String size = entry.attrs.isDirectory() ? "" : " (" + formatSize(entry.attrs.size()) + ")";
+            out.println(type + " " + entry.name + size);
+        }
+        out.println();
+    }
+
+    private String changeDir(CryptoFileSystem fs, MetadataCache cache, String currentPath, String arg) throws IOException {
         if (arg.isEmpty() || arg.equals("/")) {
             return "/";
         }
         
         String newPath = resolvePath(currentPath, arg);
-        Path path = fs.getPath(newPath);
+        BasicFileAttributes attrs = cache.attributes(fs.getPath(newPath));
         
-        if (!Files.exists(path)) {
-            System.out.println("Directory not found: " + newPath);
+        if (attrs == null) {
+            out.println("Directory not found: " + newPath);
             return currentPath;
         }
         
-        if (!Files.isDirectory(path)) {
-            System.out.println("Not a directory: " + newPath);
+        if (!attrs.isDirectory()) {
+            out.println("Not a directory: " + newPath);
             return currentPath;
         }
         
         return newPath;
     }
 
-    private String resolvePath(String currentPath, String arg) {
+    static String resolvePath(String currentPath, String arg) {
         if (arg.startsWith("/")) {
             return normalizePath(arg);
         }
@@ -390,7 +1323,7 @@ public class VaultOperations {
         return normalizePath(combined);
     }
 
-    private String normalizePath(String path) {
+    static String normalizePath(String path) {
         String[] parts = path.split("/");
         java.util.List<String> stack = new java.util.ArrayList<>();
         
@@ -406,7 +1339,7 @@ public class VaultOperations {
         return "/" + String.join("/", stack);
     }
 
-    private String formatSize(long bytes) {
+    static String formatSize(long bytes) {
         if (bytes < 1024) return bytes + " B";
         if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
         if (bytes < 1024 * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024));
@@ -0,0 +1,311 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One-way incremental sync of a local directory into a vault directory.
+ * <p>
+ * {@link #plan} compares the local tree against the {@link SyncManifest} of the previous run using only
+ * local file attributes (and local hashes in checksum mode), so an unchanged tree is detected without
+ * unlocking the vault. {@link #apply} then uploads and deletes the planned entries and records the new state.
+ */
+class VaultSync {
+
+    private final Path localDir;
+    private final SyncManifest manifest;
+    private final Map<String, SyncManifest.Entry> next = new ConcurrentHashMap<>();
+    private final List<String> newDirectories = new ArrayList<>();
+    private final List<Upload> uploads = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> deletedFiles = new ArrayList<>();
+    private final List<String> deletedDirectories = new ArrayList<>();
+    private int unchanged;
+
+    private VaultSync(Path localDir, SyncManifest manifest) {
+        this.localDir = localDir;
+        this.manifest = manifest;
+    }
+
+    static VaultSync plan(Path localDir, SyncManifest manifest, boolean checksum, boolean delete, int parallelism) throws IOException {
+        VaultSync sync = new VaultSync(localDir, manifest);
+        sync.scan(checksum, delete, Math.max(1, parallelism));
+        return sync;
+    }
+
+    /**
+     * Plans a known set of changes without scanning the local tree, e.g. for a batch of file system events.
+     * Entries of the manifest that are not mentioned stay as they are.
+     *
+     * @param uploads files to upload with their new local state
+     */
+    static VaultSync of(Path localDir, SyncManifest manifest, Collection<String> newDirectories,
+                        Map<String, SyncManifest.Entry> uploads, Collection<String> deletedFiles,
+                        Collection<String> deletedDirectories) {
+        VaultSync sync = new VaultSync(localDir, manifest);
+        sync.next.putAll(manifest.entries());
+        sync.newDirectories.addAll(newDirectories);
+        uploads.forEach((path, entry) -> sync.uploads.add(new Upload(path, entry)));
+        sync.uploads.sort(Comparator.comparing(u -> u.path));
+        sync.deletedFiles.addAll(deletedFiles);
+        sync.deletedDirectories.addAll(deletedDirectories);
+        deletedFiles.forEach(sync.next::remove);
+        deletedDirectories.forEach(sync.next::remove);
+        return sync;
+    }
+
+    private void scan(boolean checksum, boolean delete, int parallelism) throws IOException {
+        Map<String, SyncManifest.Entry> previous = manifest.entries();
+        Set<String> seen = new HashSet<>();
+        ExecutorService hashers = checksum ? Workers.newExecutor("hash", parallelism, false) : null;
+        Semaphore slots = new Semaphore(parallelism * 2);
+        List<String> hashFailures = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            Files.walkFileTree(localDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    String rel = relative(dir);
+                    seen.add(rel);
+                    SyncManifest.Entry known = previous.get(rel);
+                    if (known != null && known.isDirectory()) {
+                        next.put(rel, known);
+                    } else {
+                        newDirectories.add(rel);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String rel = relative(file);
+                    seen.add(rel);
+                    long size = attrs.size();
+                    long modified = attrs.lastModifiedTime().toMillis();
+                    SyncManifest.Entry known = previous.get(rel);
+
+                    if (!checksum) {
+                        if (known != null && known.size == size && known.modified == modified) {
+                            next.put(rel, known);
+                            unchanged++;
+                        } else {
+                            uploads.add(new Upload(rel, new SyncManifest.Entry(size, modified, new byte[0])));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    try {
+                        slots.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Sync interrupted");
+                    }
+                    hashers.execute(() -> {
+                        try {
+                            byte[] hash = SyncManifest.hash(file);
+                            SyncManifest.Entry entry = new SyncManifest.Entry(size, modified, hash);
+                            boolean sameContent = known != null && known.size == size && (Arrays.equals(known.hash, hash)
+                                    || known.hash.length == 0 && known.modified == modified);
+                            if (sameContent) {
+                                next.put(rel, entry);
+                            } else {
+                                uploads.add(new Upload(rel, entry));
+                            }
+                        } catch (IOException | UncheckedIOException e) {
+                            hashFailures.add(rel + ": " + e.getMessage());
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            if (hashers != null) {
+                hashers.shutdown();
+                try {
+                    hashers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    hashers.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (!hashFailures.isEmpty()) {
+            throw new IOException("Failed to hash " + hashFailures.size() + " files, first: " + hashFailures.get(0));
+        }
+        if (checksum) {
+            unchanged = next.size() - (int) next.values().stream().filter(SyncManifest.Entry::isDirectory).count();
+        }
+
+        for (Map.Entry<String, SyncManifest.Entry> e : previous.entrySet()) {
+            if (seen.contains(e.getKey())) {
+                continue;
+            }
+            if (!delete) {
+                next.put(e.getKey(), e.getValue());
+            } else if (e.getValue().isDirectory()) {
+                deletedDirectories.add(e.getKey());
+            } else {
+                deletedFiles.add(e.getKey());
+            }
+        }
+        uploads.sort(Comparator.comparing(u -> u.path));
+    }
+
+    private String relative(Path local) {
+        StringJoiner joiner = new StringJoiner("/");
+        for (Path part : localDir.relativize(local)) {
+            if (!part.toString().isEmpty()) {
+                joiner.add(part.toString());
+            }
+        }
+        return joiner.toString();
+    }
+
+    boolean isUpToDate() {
+        return newDirectories.isEmpty() && uploads.isEmpty() && deletedFiles.isEmpty() && deletedDirectories.isEmpty();
+    }
+
+    int deletions() {
+        return deletedFiles.size() + deletedDirectories.size();
+    }
+
+    void printPlan(PrintStream out) {
+        for (String dir : newDirectories) {
+            out.println("mkdir  /" + dir);
+        }
+        for (Upload upload : uploads) {
+            out.println("upload /" + upload.path + " (" + VaultOperations.formatSize(upload.entry.size) + ")");
+        }
+        for (String file : deletedFiles) {
+            out.println("delete /" + file);
+        }
+        for (String dir : deletedDirectories) {
+            out.println("rmdir  /" + dir);
+        }
+    }
+
+    String summary() {
+        long bytes = 0;
+        synchronized (uploads) {
+            for (Upload upload : uploads) {
+                bytes += upload.entry.size;
+            }
+        }
+        return String.format("%d to upload (%s), %d unchanged, %d to delete",
+                uploads.size(), VaultOperations.formatSize(bytes), unchanged, deletedFiles.size() + deletedDirectories.size());
+    }
+
+    /**
+     * @return descriptions of the entries that could not be synced; they are retried on the next run
+     */
+    List<String> apply(CryptoFileSystem fs, String vaultDir, int parallelism, TransferProgress progress) throws IOException {
+        Map<String, SyncManifest.Entry> previous = manifest.entries();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Path vaultRoot = fs.getPath(vaultDir);
+        DirectoryCache directories = new DirectoryCache();
+
+        for (String dir : newDirectories) {
+            try {
+                directories.ensure(resolve(vaultRoot, dir));
+                PathIndex.created(resolve(vaultRoot, dir));
+                next.put(dir, new SyncManifest.Entry(SyncManifest.DIRECTORY, 0, new byte[0]));
+            } catch (IOException e) {
+                failures.add("/" + dir + ": " + e.getMessage());
+                progress.failed();
+            }
+        }
+
+        int workers = Math.max(1, parallelism);
+        ExecutorService executor = Workers.newExecutor("sync", workers, false);
+        BufferPool buffers = BufferPool.forWorkers(workers, TreeCopier.DEFAULT_IN_FLIGHT_BYTES);
+        try {
+            for (Upload upload : uploads) {
+                executor.execute(() -> {
+                    Path target = resolve(vaultRoot, upload.path);
+                    try {
+                        directories.ensure(target.getParent());
+                        ByteBuffer buffer = buffers.take();
+                        try {
+                            ChannelCopier.copy(localDir.resolve(upload.path), target, buffer);
+                        } finally {
+                            buffers.release(buffer);
+                        }
+                        PathIndex.updated(target);
+                        next.put(upload.path, upload.entry);
+                        progress.fileDone(upload.entry.size);
+                    } catch (IOException | RuntimeException e) {
+                        failures.add("/" + upload.path + ": " + e.getMessage());
+                        progress.failed();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (String file : deletedFiles) {
+            try {
+                long start = Stats.start();
+                Files.deleteIfExists(resolve(vaultRoot, file));
+                Stats.operation("delete", start, 0);
+                PathIndex.removed(resolve(vaultRoot, file));
+            } catch (IOException e) {
+                next.put(file, previous.get(file));
+                failures.add("/" + file + ": " + e.getMessage());
+            }
+        }
+        deletedDirectories.sort(Comparator.comparing(String::length).reversed());
+        for (String dir : deletedDirectories) {
+            try {
+                Files.deleteIfExists(resolve(vaultRoot, dir));
+                PathIndex.removed(resolve(vaultRoot, dir));
+            } catch (DirectoryNotEmptyException e) {
+                // contains entries that were not created by sync, leave it in place
+            } catch (IOException e) {
+                next.put(dir, previous.get(dir));
+                failures.add("/" + dir + ": " + e.getMessage());
+            }
+        }
+
+        manifest.entries().clear();
+        manifest.entries().putAll(next);
+        manifest.save();
+        return failures;
+    }
+
+    private static Path resolve(Path vaultRoot, String rel) {
+        return rel.isEmpty() ? vaultRoot : vaultRoot.resolve(rel);
+    }
+
+    private static final class Upload {
+        final String path;
+        final SyncManifest.Entry entry;
+
+        Upload(String path, SyncManifest.Entry entry) {
+            this.path = path;
+            this.entry = entry;
+        }
+    }
+}
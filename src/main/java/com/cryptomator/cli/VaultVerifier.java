@@ -0,0 +1,148 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks that every file and directory name below a vault directory can be decrypted, without writing any
+ * cleartext.
+ * <p>
+ * Files are read completely on the {@link VaultWalker}'s worker threads, which makes cryptofs authenticate
+ * the header and every chunk. Names that fail to decrypt are silently left out of cleartext listings, so for
+ * each directory the number of entries listed is compared with the number of nodes in its ciphertext
+ * directory.
+ */
+class VaultVerifier {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final int parallelism;
+    private final BufferPool buffers;
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    VaultVerifier(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.buffers = new BufferPool(this.parallelism, BUFFER_SIZE);
+    }
+
+    /**
+     * Verifies {@code root}, which may be a directory or a single file.
+     *
+     * @return descriptions of the entries that failed verification
+     */
+    List<String> verify(Path root, TransferProgress progress) throws IOException {
+        if (!Files.isDirectory(root)) {
+            verifyFile(root, Files.readAttributes(root, BasicFileAttributes.class), progress);
+            return failures;
+        }
+
+        // listed entries per directory, compared with its ciphertext nodes once the directory is done
+        Map<Path, LongAdder> listed = new ConcurrentHashMap<>();
+        Set<Path> unreadable = ConcurrentHashMap.newKeySet();
+        listed.put(root, new LongAdder());
+        new VaultWalker(parallelism).walk(root, new VaultWalker.Visitor() {
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                listed.get(file.getParent()).increment();
+                if (attrs.isRegularFile()) {
+                    verifyFile(file, attrs, progress);
+                }
+            }
+
+            @Override
+            public void visitDirectory(Path dir, BasicFileAttributes attrs) {
+                listed.get(dir.getParent()).increment();
+                listed.put(dir, new LongAdder());
+            }
+
+            @Override
+            public void directoryDone(Path dir, int depth, VaultWalker.Totals totals) {
+                LongAdder count = listed.remove(dir);
+                if (!unreadable.contains(dir)) {
+                    checkNames(dir, count.sum(), progress);
+                }
+            }
+
+            @Override
+            public void failed(Path path, IOException e) {
+                if (listed.containsKey(path)) {
+                    // the directory itself could not be listed
+                    unreadable.add(path);
+                } else {
+                    listed.get(path.getParent()).increment();
+                }
+                fail(path + ": " + e.getMessage(), progress);
+            }
+        });
+        return failures;
+    }
+
+    private void verifyFile(Path file, BasicFileAttributes attrs, TransferProgress progress) {
+        long start = Stats.start();
+        try {
+            ByteBuffer buffer = buffers.take();
+            long total = 0;
+            try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+                int read;
+                while ((read = channel.read(buffer)) != -1) {
+                    Throttle.READ.acquire(read);
+                    total += read;
+                    buffer.clear();
+                }
+            } finally {
+                buffers.release(buffer);
+            }
+            if (total != attrs.size()) {
+                throw new IOException("read " + total + " bytes, expected " + attrs.size());
+            }
+            Stats.operation("verify", start, total);
+            progress.fileDone(total);
+        } catch (IOException e) {
+            fail(file + ": " + e.getMessage(), progress);
+        }
+    }
+
+    /**
+     * Reports a directory whose ciphertext directory has more nodes than the cleartext listing returned.
+     */
+    private void checkNames(Path dir, long listedEntries, TransferProgress progress) {
+        try {
+            Path ciphertextDir = ((CryptoFileSystem) dir.getFileSystem()).getCiphertextPath(dir);
+            long nodes = 0;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(ciphertextDir)) {
+                for (Path node : stream) {
+                    String name = node.getFileName().toString();
+                    if ((name.endsWith(".c9r") || name.endsWith(".c9s")) && !name.equals("dirid.c9r")) {
+                        nodes++;
+                    }
+                }
+            }
+            if (nodes > listedEntries) {
+                fail(dir + ": " + (nodes - listedEntries) + " entries with names that cannot be decrypted in "
+                        + ciphertextDir, progress);
+            }
+        } catch (IOException e) {
+            fail(dir + ": " + e.getMessage(), progress);
+        }
+    }
+
+    private void fail(String failure, TransferProgress progress) {
+        failures.add(failure);
+        progress.failed();
+    }
+}
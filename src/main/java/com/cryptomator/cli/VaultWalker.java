@@ -0,0 +1,156 @@
+package com.cryptomator.cli;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel tree walker on a work-stealing {@link ForkJoinPool}.
+ * <p>
+ * Every entry's {@link BasicFileAttributes} are read exactly once. Large directories are split into
+ * batches of entries, so a single directory with many entries is spread over all workers as well.
+ * Visitor callbacks are invoked concurrently from the worker threads, in no particular order, except
+ * that {@link Visitor#directoryDone} is called after the directory's whole subtree was visited.
+ */
+class VaultWalker {
+
+    private static final int BATCH_SIZE = 128;
+
+    interface Visitor {
+        void visitFile(Path file, BasicFileAttributes attrs);
+
+        default void visitDirectory(Path dir, BasicFileAttributes attrs) {
+        }
+
+        /**
+         * @param depth depth below the walk root, which has depth 0
+         */
+        default void directoryDone(Path dir, int depth, Totals totals) {
+        }
+
+        void failed(Path path, IOException e);
+    }
+
+    /**
+     * Entry counts and file bytes of a subtree, not counting the subtree's root directory itself.
+     */
+    static final class Totals {
+        long files;
+        long directories;
+        long bytes;
+
+        void add(Totals other) {
+            files += other.files;
+            directories += other.directories;
+            bytes += other.bytes;
+        }
+    }
+
+    private final int parallelism;
+
+    VaultWalker(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    Totals walk(Path root, Visitor visitor) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new DirectoryTask(root, 0, visitor));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class DirectoryTask extends RecursiveTask<Totals> {
+        private final Path dir;
+        private final int depth;
+        private final Visitor visitor;
+
+        DirectoryTask(Path dir, int depth, Visitor visitor) {
+            this.dir = dir;
+            this.depth = depth;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected Totals compute() {
+            Totals totals = new Totals();
+            List<BatchTask> forked = new ArrayList<>();
+            List<Path> batch = new ArrayList<>(BATCH_SIZE);
+            long start = Stats.start();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    batch.add(entry);
+                    if (batch.size() == BATCH_SIZE) {
+                        BatchTask task = new BatchTask(batch, depth + 1, visitor);
+                        task.fork();
+                        forked.add(task);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+            } catch (IOException e) {
+                visitor.failed(dir, e);
+            } catch (DirectoryIteratorException e) {
+                visitor.failed(dir, e.getCause());
+            }
+            Stats.listed(start);
+
+            if (!batch.isEmpty()) {
+                totals.add(new BatchTask(batch, depth + 1, visitor).invoke());
+            }
+            for (BatchTask task : forked) {
+                totals.add(task.join());
+            }
+            visitor.directoryDone(dir, depth, totals);
+            return totals;
+        }
+    }
+
+    private static class BatchTask extends RecursiveTask<Totals> {
+        private final List<Path> entries;
+        private final int depth;
+        private final Visitor visitor;
+
+        BatchTask(List<Path> entries, int depth, Visitor visitor) {
+            this.entries = entries;
+            this.depth = depth;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected Totals compute() {
+            Totals totals = new Totals();
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            for (Path entry : entries) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        totals.directories++;
+                        visitor.visitDirectory(entry, attrs);
+                        DirectoryTask task = new DirectoryTask(entry, depth, visitor);
+                        task.fork();
+                        subdirectories.add(task);
+                    } else {
+                        totals.files++;
+                        totals.bytes += attrs.size();
+                        visitor.visitFile(entry, attrs);
+                    }
+                } catch (IOException e) {
+                    visitor.failed(entry, e);
+                }
+            }
+            for (DirectoryTask task : subdirectories) {
+                totals.add(task.join());
+            }
+            return totals;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.cryptomator.cli;
+
+import org.cryptomator.cryptofs.CryptoFileSystem;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Mirrors a local directory into a vault directory as it changes, keeping the vault unlocked.
+ * <p>
+ * Starts with a regular {@link VaultSync} to catch up, then listens to a {@link WatchService} on every local
+ * directory. Events are collected until the tree has been quiet for the debounce interval (or at most
+ * {@link #MAX_BATCH_DELAY_MILLIS}), and each batch is applied with {@link VaultSync#of}: parallel uploads of
+ * changed files, new directories and, with {@code delete}, deletions. A file or directory that disappears and
+ * reappears under another name with the same content within one batch is moved inside the vault instead of
+ * being uploaded again; the content is compared with the manifest's hash, or else with the vault copy. The sync manifest is shared with {@code sync}, so either can continue where the other
+ * stopped.
+ */
+class VaultWatcher {
+
+    static final long MAX_BATCH_DELAY_MILLIS = 10_000;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final SyncManifest.Entry DIRECTORY = new SyncManifest.Entry(SyncManifest.DIRECTORY, 0, new byte[0]);
+
+    private final CryptoFileSystem fs;
+    private final Path localDir;
+    private final String vaultDir;
+    private final SyncManifest manifest;
+    private final boolean delete;
+    private final int parallelism;
+    private final long debounceNanos;
+    private final PrintStream out;
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+    private final Set<String> dirty = new TreeSet<>();
+
+    private volatile boolean stopping;
+    private boolean rescan;
+    private long firstEvent;
+    private long lastEvent;
+
+    VaultWatcher(CryptoFileSystem fs, Path localDir, String vaultDir, SyncManifest manifest, boolean delete,
+                 int parallelism, long debounceMillis, PrintStream out) {
+        this.fs = fs;
+        this.localDir = localDir;
+        this.vaultDir = vaultDir;
+        this.manifest = manifest;
+        this.delete = delete;
+        this.parallelism = Math.max(1, parallelism);
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        this.out = out;
+    }
+
+    /**
+     * Watches until {@link #stop()} is called. A batch that is being applied is completed first.
+     */
+    void run() throws IOException {
+        try (WatchService watchService = localDir.getFileSystem().newWatchService()) {
+            // register before the initial sync, so that nothing changed during it is missed
+            register(watchService, localDir);
+            fullSync();
+            out.println("Watching " + localDir + " (" + watched.size() + " directories), Ctrl+C to stop");
+
+            while (!stopping) {
+                long now = System.nanoTime();
+                boolean pending = rescan || !dirty.isEmpty();
+                long deadline = Math.min(lastEvent + debounceNanos, firstEvent + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MILLIS));
+                if (pending && now - deadline >= 0) {
+                    flush(watchService);
+                    continue;
+                }
+                WatchKey key;
+                try {
+                    key = watchService.poll(pending ? deadline - now : TimeUnit.SECONDS.toNanos(1), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                for (; key != null; key = watchService.poll()) {
+                    collect(watchService, key);
+                }
+            }
+            if (rescan || !dirty.isEmpty()) {
+                flush(watchService);
+            }
+        }
+    }
+
+    void stop() {
+        stopping = true;
+    }
+
+    private void collect(WatchService watchService, WatchKey key) {
+        Path dir = watched.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            long now = System.nanoTime();
+            if (!rescan && dirty.isEmpty()) {
+                firstEvent = now;
+            }
+            lastEvent = now;
+            if (event.kind() == OVERFLOW || dir == null) {
+                rescan = true;
+            } else {
+                Path path = dir.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        register(watchService, path);
+                    } catch (IOException e) {
+                        rescan = true;
+                    }
+                }
+                if (event.kind() != ENTRY_MODIFY || !Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    dirty.add(relative(path));
+                }
+            }
+        }
+        if (!key.reset()) {
+            watched.remove(key);
+        }
+    }
+
+    private void register(WatchService watchService, Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                watched.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void flush(WatchService watchService) throws IOException {
+        if (rescan) {
+            rescan = false;
+            dirty.clear();
+            out.println(timestamp() + "Events were lost, rescanning " + localDir);
+            // directories created while events were lost are not watched yet
+            register(watchService, localDir);
+            fullSync();
+            return;
+        }
+        List<String> paths = new ArrayList<>(dirty);
+        dirty.clear();
+        applyBatch(paths);
+    }
+
+    private void fullSync() throws IOException {
+        VaultSync sync = VaultSync.plan(localDir, manifest, false, delete, parallelism);
+        if (!sync.isUpToDate()) {
+            apply(sync, 0);
+        }
+    }
+
+    /**
+     * Works out what happened to the changed paths by comparing their current state with the manifest.
+     */
+    private void applyBatch(List<String> paths) throws IOException {
+        Map<String, SyncManifest.Entry> known = manifest.entries();
+        Set<String> newDirectories = new TreeSet<>();
+        Map<String, SyncManifest.Entry> uploads = new TreeMap<>();
+        Set<String> removed = new TreeSet<>();
+
+        for (String rel : paths) {
+            Path local = localDir.resolve(rel);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(local, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                if (known.containsKey(rel)) {
+                    removed.add(rel);
+                }
+                continue;
+            }
+            if (attrs.isDirectory()) {
+                collectTree(local, newDirectories, uploads);
+            } else if (attrs.isRegularFile()) {
+                SyncManifest.Entry entry = new SyncManifest.Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), new byte[0]);
+                if (!entry.sameAttributes(known.get(rel))) {
+                    uploads.put(rel, entry);
+                }
+            }
+        }
+
+        Set<String> deletedFiles = new TreeSet<>();
+        Set<String> deletedDirectories = new TreeSet<>();
+        for (String rel : removed) {
+            if (known.get(rel).isDirectory()) {
+                deletedDirectories.add(rel);
+                for (Map.Entry<String, SyncManifest.Entry> e : known.entrySet()) {
+                    if (e.getKey().startsWith(rel + "/")) {
+                        (e.getValue().isDirectory() ? deletedDirectories : deletedFiles).add(e.getKey());
+                    }
+                }
+            } else {
+                deletedFiles.add(rel);
+            }
+        }
+
+        int moved = delete ? moveRenamed(newDirectories, uploads, deletedFiles, deletedDirectories) : 0;
+        if (!delete) {
+            deletedFiles.clear();
+            deletedDirectories.clear();
+        }
+        if (moved == 0 && newDirectories.isEmpty() && uploads.isEmpty() && deletedFiles.isEmpty() && deletedDirectories.isEmpty()) {
+            return;
+        }
+        apply(VaultSync.of(localDir, manifest, newDirectories, uploads, deletedFiles, deletedDirectories), moved);
+    }
+
+    /**
+     * Adds the directories and changed files below (and including) a directory that appeared or changed.
+     */
+    private void collectTree(Path dir, Set<String> newDirectories, Map<String, SyncManifest.Entry> uploads) throws IOException {
+        Map<String, SyncManifest.Entry> known = manifest.entries();
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) {
+                String rel = relative(subdir);
+                SyncManifest.Entry previous = known.get(rel);
+                if (previous == null || !previous.isDirectory()) {
+                    newDirectories.add(rel);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    String rel = relative(file);
+                    SyncManifest.Entry entry = new SyncManifest.Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), new byte[0]);
+                    if (!entry.sameAttributes(known.get(rel))) {
+                        uploads.put(rel, entry);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // it disappeared again, a later event covers it
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Turns deletions that reappear under a new name into moves inside the vault: whole directories whose files
+     * all match, then single files. Size and modification time select the candidates, and only identical content
+     * makes a move. Matched entries are taken out of the other sets and the manifest is updated.
+     *
+     * @return the number of moves
+     */
+    private int moveRenamed(Set<String> newDirectories, Map<String, SyncManifest.Entry> uploads,
+                            Set<String> deletedFiles, Set<String> deletedDirectories) {
+        Map<String, SyncManifest.Entry> known = manifest.entries();
+        Path vaultRoot = fs.getPath(vaultDir);
+        int moved = 0;
+
+        for (String from : new ArrayList<>(deletedDirectories)) {
+            if (!deletedDirectories.contains(from) || deletedDirectories.contains(parent(from))) {
+                continue;
+            }
+            Map<String, SyncManifest.Entry> contents = subtree(known, from);
+            for (String to : newDirectories) {
+                if (!newDirectories.contains(parent(to)) && sameContents(contents, subtree(uploads, newDirectories, to))
+                        && sameFiles(vaultRoot, from, to, contents)) {
+                    if (move(vaultRoot, from, to)) {
+                        moved++;
+                        rename(known, from, to);
+                        String prefix = to + "/";
+                        newDirectories.removeIf(d -> d.equals(to) || d.startsWith(prefix));
+                        uploads.keySet().removeIf(f -> f.startsWith(prefix));
+                        String oldPrefix = from + "/";
+                        deletedDirectories.removeIf(d -> d.equals(from) || d.startsWith(oldPrefix));
+                        deletedFiles.removeIf(f -> f.startsWith(oldPrefix));
+                    }
+                    break;
+                }
+            }
+        }
+
+        for (String from : new ArrayList<>(deletedFiles)) {
+            SyncManifest.Entry entry = known.get(from);
+            for (Map.Entry<String, SyncManifest.Entry> upload : uploads.entrySet()) {
+                String to = upload.getKey();
+                if (!known.containsKey(to) && upload.getValue().sameAttributes(entry) && !newDirectories.contains(parent(to))
+                        && sameFile(vaultRoot.resolve(from), localDir.resolve(to), entry)) {
+                    if (move(vaultRoot, from, to)) {
+                        moved++;
+                        known.remove(from);
+                        known.put(to, entry);
+                        uploads.remove(to);
+                        deletedFiles.remove(from);
+                    }
+                    break;
+                }
+            }
+        }
+        return moved;
+    }
+
+    private boolean move(Path vaultRoot, String from, String to) {
+        Path source = vaultRoot.resolve(from);
+        Path target = vaultRoot.resolve(to);
+        try {
+            long start = Stats.start();
+            Files.move(source, target);
+            Stats.operation("move", start, 0);
+            PathIndex.removed(source);
+            if (Files.isDirectory(target)) {
+                PathIndex.refreshed(target, parallelism);
+            } else {
+                PathIndex.updated(target);
+            }
+            out.println(timestamp() + "Moved /" + from + " -> /" + to);
+            return true;
+        } catch (IOException e) {
+            // fall back to uploading and deleting
+            return false;
+        }
+    }
+
+    /**
+     * @return the entries below {@code dir}, keyed relative to it
+     */
+    private static Map<String, SyncManifest.Entry> subtree(Map<String, SyncManifest.Entry> entries, String dir) {
+        Map<String, SyncManifest.Entry> contents = new HashMap<>();
+        String prefix = dir + "/";
+        entries.forEach((path, entry) -> {
+            if (path.startsWith(prefix)) {
+                contents.put(path.substring(prefix.length()), entry);
+            }
+        });
+        return contents;
+    }
+
+    private static Map<String, SyncManifest.Entry> subtree(Map<String, SyncManifest.Entry> uploads, Set<String> directories, String dir) {
+        Map<String, SyncManifest.Entry> contents = subtree(uploads, dir);
+        String prefix = dir + "/";
+        for (String subdir : directories) {
+            if (subdir.startsWith(prefix)) {
+                contents.put(subdir.substring(prefix.length()), DIRECTORY);
+            }
+        }
+        return contents;
+    }
+
+    private static boolean sameContents(Map<String, SyncManifest.Entry> a, Map<String, SyncManifest.Entry> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (Map.Entry<String, SyncManifest.Entry> e : a.entrySet()) {
+            if (!e.getValue().sameAttributes(b.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameFiles(Path vaultRoot, String from, String to, Map<String, SyncManifest.Entry> contents) {
+        for (Map.Entry<String, SyncManifest.Entry> e : contents.entrySet()) {
+            if (!e.getValue().isDirectory() && !sameFile(vaultRoot.resolve(from + "/" + e.getKey()),
+                    localDir.resolve(to + "/" + e.getKey()), e.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Equal size and modification time are common for unrelated files (archives, {@code cp -p}), so the content
+     * has to match too: against the hash recorded in checksum mode, or else against the vault copy.
+     */
+    private static boolean sameFile(Path vaultFile, Path localFile, SyncManifest.Entry known) {
+        try {
+            byte[] expected = known.hash.length > 0 ? known.hash : SyncManifest.hash(vaultFile);
+            return Arrays.equals(expected, SyncManifest.hash(localFile));
+        } catch (IOException e) {
+            // upload it instead
+            return false;
+        }
+    }
+
+    private static void rename(Map<String, SyncManifest.Entry> known, String from, String to) {
+        Map<String, SyncManifest.Entry> renamed = new HashMap<>();
+        String prefix = from + "/";
+        known.entrySet().removeIf(e -> {
+            if (e.getKey().equals(from)) {
+                renamed.put(to, e.getValue());
+                return true;
+            } else if (e.getKey().startsWith(prefix)) {
+                renamed.put(to + "/" + e.getKey().substring(prefix.length()), e.getValue());
+                return true;
+            }
+            return false;
+        });
+        known.putAll(renamed);
+    }
+
+    private void apply(VaultSync sync, int moved) throws IOException {
+        long start = System.nanoTime();
+        TransferProgress transfer = new TransferProgress("Uploaded", null);
+        List<String> failures = sync.apply(fs, vaultDir, parallelism, transfer);
+
+        StringJoiner summary = new StringJoiner(", ");
+        if (transfer.files() > 0) {
+            summary.add("uploaded " + transfer.files() + " files (" + VaultOperations.formatSize(transfer.bytes()) + ")");
+        }
+        if (moved > 0) {
+            summary.add("moved " + moved);
+        }
+        if (sync.deletions() > 0) {
+            summary.add("deleted " + sync.deletions());
+        }
+        if (!failures.isEmpty()) {
+            summary.add(failures.size() + " failed");
+        }
+        if (summary.length() > 0) {
+            out.printf("%sSynced: %s in %.1fs%n", timestamp(), summary, (System.nanoTime() - start) / 1e9);
+        }
+        for (String failure : failures) {
+            out.println(timestamp() + "Failed: " + failure + " (retried on the next change)");
+        }
+    }
+
+    private String relative(Path local) {
+        StringJoiner joiner = new StringJoiner("/");
+        for (Path part : localDir.relativize(local)) {
+            if (!part.toString().isEmpty()) {
+                joiner.add(part.toString());
+            }
+        }
+        return joiner.toString();
+    }
+
+    private static String parent(String rel) {
+        int slash = rel.lastIndexOf('/');
+        return slash < 0 ? "" : rel.substring(0, slash);
+    }
+
+    private static String timestamp() {
+        return LocalTime.now().format(TIME) + " ";
+    }
+}
@@ -0,0 +1,46 @@
+package com.cryptomator.cli;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors used by the parallel vault operations.
+ */
+final class Workers {
+
+    private Workers() {
+    }
+
+    static int defaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns a virtual-thread-per-task executor if requested and supported by the running JVM (Java 21+),
+     * otherwise a fixed pool of {@code parallelism} daemon threads. Callers bound concurrency themselves
+     * when using virtual threads.
+     */
+    static ExecutorService newExecutor(String name, int parallelism, boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // not available before Java 21, fall back to platform threads
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, parallelism), daemonThreads(name));
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}